@@ -137,10 +137,56 @@ public class Block {
         + ", prevHash: " + getPrevHash() + ", hash: " + getHash() + ")";
   } // toString()
 
+  /**
+   * Mines for a block from the specified parameters, trying only the nonces from start to end
+   * (both inclusive). Returns the block, or null if no nonce in the range gives a valid hash.
+   */
+  public static Block mineRange(int num, int amount, Hash prevHash, long start, long end)
+      throws NoSuchAlgorithmException {
+    return mineRange(num, amount, prevHash, start, end, Hash.DIFFICULTY);
+  } // mineRange(int, int, Hash, long, long)
+
+  /**
+   * Mines for a block from the specified parameters whose hash starts with the given number of
+   * zero bytes, trying every nonce. Chains with a lower difficulty use this instead of
+   * Block(int, int, Hash).
+   */
+  public static Block mine(int num, int amount, Hash prevHash, int difficulty)
+      throws NoSuchAlgorithmException {
+    return mineRange(num, amount, prevHash, Long.MIN_VALUE, Long.MAX_VALUE, difficulty);
+  } // mine(int, int, Hash, int)
+
+  /**
+   * Like mineRange(int, int, Hash, long, long), but for a hash that starts with the given
+   * number of zero bytes.
+   */
+  public static Block mineRange(int num, int amount, Hash prevHash, long start, long end,
+      int difficulty) throws NoSuchAlgorithmException {
+    // Convert provided data into byte array
+    byte[] numBytes = ByteBuffer.allocate(Integer.BYTES).putInt(num).array();
+    byte[] dataBytes = ByteBuffer.allocate(Integer.BYTES).putInt(amount).array();
+    byte[] prevHashBytes = prevHash == null ? null : prevHash.getData();
+
+    // Create instance of MessageDigest
+    MessageDigest md = MessageDigest.getInstance("sha-256");
+
+    // Loop through the range, comparing with end before incrementing so that an end of
+    // Long.MAX_VALUE does not overflow
+    for (long nonceCandidate = start; ; nonceCandidate++) {
+      Hash hashCandidate = generateHash(numBytes, dataBytes, prevHashBytes, nonceCandidate, md);
+      if (hashCandidate.isValid(difficulty)) {
+        return new Block(num, amount, prevHash, nonceCandidate);
+      }
+      if (nonceCandidate == end) {
+        return null;
+      }
+    }
+  } // mineRange(int, int, Hash, long, long, int)
+
   // +----------------+
   // | Helper methods |
   // +----------------+-----------------------------------------------------------------------------
-  
+
   /**
    * Generates a hash from byte arrays of number, data, previous hash, and a long nonce
    * using a MessageDigest instance.
@@ -1,15 +1,40 @@
 import java.security.NoSuchAlgorithmException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * A linked list of Block objects.
  * 
+ * Methods synchronize on the BlockChain, so a chain may be shared with a ChainNode; callers that
+ * need several calls to see the same chain should synchronize on it as well.
+ * 
+ * The kept blocks are also indexed by number and by hash, so that getBlocks and findHash (which a
+ * ChainNode calls for every request from a peer) do not walk the list.
+ * 
+ * A BlockChain may be created with a prune depth, in which case only that many of the most recent
+ * blocks are kept. Older blocks are folded into a Snapshot that records the height and hash of the
+ * newest folded block, the balance after it, and the initial amount, so that balances and
+ * validity can still be computed without walking back to the first block.
+ * 
+ * A BlockChain may also be created with a difficulty lower than Hash.DIFFICULTY, so that mining
+ * is cheap (for load tests); its blocks are mined and checked against its own difficulty only.
+ * 
+ * Every append, removal, and reorg is published to the chain's ChainEvents feed; use
+ * subscribe(int) to follow the chain. The feed is only allocated once it is first asked for, so
+ * chains nobody follows do not pay for its ring.
+ * 
  * @author Tim Yu
  * @author Nye Tenerelli
  * @author Keely Miyamoto
  */
 public class BlockChain {
 
+  /**
+   * The number of recent events kept for subscribers.
+   */
+  static final int EVENT_CAPACITY = 1024;
+
   // +----------+
   // | Fields  |
   // +---------+----------------------------------------------------------------------------------
@@ -26,9 +51,98 @@ public class BlockChain {
     } // Node(Block)
   } // Node
 
+  // A nested static class for the blocks folded away by pruning. Snapshots are immutable;
+  // folding a block gives a new one.
+  public static class Snapshot {
+    // Number of the newest folded block.
+    final int height;
+    // Hash of the newest folded block.
+    final Hash hash;
+    // Sum of the amounts of every folded block, including the initial amount.
+    final int balance;
+    // Alexis' initial amount.
+    final int initial;
+    // Whether every folded block was valid and left a legal balance.
+    final boolean valid;
+
+    // Constructor
+    public Snapshot(int initial) {
+      this(-1, null, 0, initial, true);
+    } // Snapshot(int)
+
+    // Constructor
+    Snapshot(int height, Hash hash, int balance, int initial, boolean valid) {
+      this.height = height;
+      this.hash = hash;
+      this.balance = balance;
+      this.initial = initial;
+      this.valid = valid;
+    } // Snapshot(int, Hash, int, int, boolean)
+
+    /**
+     * Returns the number of the newest folded block.
+     */
+    public int getHeight() {
+      return this.height;
+    } // getHeight()
+
+    /**
+     * Returns the hash of the newest folded block.
+     */
+    public Hash getHash() {
+      return this.hash;
+    } // getHash()
+
+    /**
+     * Returns the balance after the newest folded block.
+     */
+    public int getBalance() {
+      return this.balance;
+    } // getBalance()
+
+    /**
+     * Returns Alexis' initial amount.
+     */
+    public int getInitial() {
+      return this.initial;
+    } // getInitial()
+
+    /**
+     * Returns whether every folded block was valid and left a legal balance.
+     */
+    public boolean isValid() {
+      return this.valid;
+    } // isValid()
+
+    /**
+     * Returns the snapshot with the given block folded into this one.
+     */
+    Snapshot fold(Block blk, int difficulty) {
+      int newBalance = this.balance + blk.getAmount();
+      boolean newValid = this.valid && blk.getHash().isValid(difficulty)
+          && (newBalance >= 0) && (newBalance <= this.initial);
+      return new Snapshot(blk.getNum(), blk.getHash(), newBalance, this.initial, newValid);
+    } // fold(Block, int)
+  } // Snapshot
+
   // BlockChain Fields
   Node first;
   Node last;
+  // Number of recent blocks to keep, or 0 to keep every block.
+  int pruneDepth;
+  // The blocks folded away by pruning, starting from the initial amount.
+  Snapshot snapshot;
+  // Number of leading zero bytes a valid hash of this chain must have.
+  int difficulty;
+  // Sum of the amounts of every block, including the initial amount.
+  int balance;
+  // Feed of changes to this chain, or null until it is first asked for.
+  ChainEvents events;
+  // The kept nodes, oldest first starting at position 'head', so a block is found by its number.
+  ArrayList<Node> index = new ArrayList<Node>();
+  int head = 0;
+  // The number of each kept block, by hash.
+  HashMap<Hash, Integer> numbers = new HashMap<Hash, Integer>();
 
   // +--------------+
   // | Constructor |
@@ -42,10 +156,45 @@ public class BlockChain {
    * @throws NoSuchAlgorithmException 
    */
   public BlockChain(int initial) throws NoSuchAlgorithmException {
-    first = new Node (new Block(0, initial, null));
-    last = first;
+    this(initial, 0);
   } // BlockChain(int)
 
+  /**
+   * Creates a BlockChain like BlockChain(int) that keeps only the pruneDepth most recent blocks,
+   * folding older ones into its snapshot. A pruneDepth of 0 keeps every block.
+   * 
+   * A pruned chain cannot serve the blocks it folded, so a ChainNode on it can only bring peers
+   * up to date whose tip is still among its kept blocks (or is the snapshot's block).
+   * @param initial
+   * @param pruneDepth
+   * @throws NoSuchAlgorithmException 
+   */
+  public BlockChain(int initial, int pruneDepth) throws NoSuchAlgorithmException {
+    this(initial, pruneDepth, Hash.DIFFICULTY);
+  } // BlockChain(int, int)
+
+  /**
+   * Creates a BlockChain like BlockChain(int, int) whose hashes need only start with the given
+   * number of zero bytes.
+   * @param initial
+   * @param pruneDepth
+   * @param difficulty
+   * @throws NoSuchAlgorithmException 
+   */
+  public BlockChain(int initial, int pruneDepth, int difficulty) throws NoSuchAlgorithmException {
+    if (pruneDepth < 0 || difficulty < 0) {
+      throw new IllegalArgumentException("pruneDepth and difficulty must not be negative");
+    } // if
+    first = new Node (Block.mine(0, initial, null, difficulty));
+    last = first;
+    this.index.add(first);
+    this.numbers.put(first.data.getHash(), 0);
+    this.pruneDepth = pruneDepth;
+    this.difficulty = difficulty;
+    this.balance = initial;
+    this.snapshot = new Snapshot(initial);
+  } // BlockChain(int, int, int)
+
   // +----------+
   // | Methods |
   // +---------+----------------------------------------------------------------------------------
@@ -57,17 +206,42 @@ public class BlockChain {
    * @throws NoSuchAlgorithmException
    */
   public Block mine(int amount) throws NoSuchAlgorithmException  {
-    Block blk = new Block(this.getSize(), amount, this.last.data.getHash());
+    // Read the tip while synchronized, but mine without holding the lock.
+    int size;
+    Hash prevHash;
+    synchronized (this) {
+      size = this.getSize();
+      prevHash = this.last.data.getHash();
+    } // synchronized
+    Block blk = Block.mine(size, amount, prevHash, this.difficulty);
     return blk;
   } // mine(int)
 
 
+  /**
+   * Returns the number of leading zero bytes a valid hash of this chain must have.
+   * @return int
+   */
+  public int getDifficulty() {
+    return this.difficulty;
+  } // getDifficulty()
+
+
+  /**
+   * Returns Alexis' balance after the last block, which is the sum of the amounts of every block.
+   * @return int
+   */
+  public synchronized int getBalance() {
+    return this.balance;
+  } // getBalance()
+
+
   /**
    * Returns the size of the BlockChain. Note that number of the blocks 
    * provides a convenient method for quickly determining the size of the chain.
    * @return int, size of the BlockChain
    */
-  public int getSize() {
+  public synchronized int getSize() {
     return this.last.data.getNum() + 1;
   } // getSize()
 
@@ -78,15 +252,14 @@ public class BlockChain {
    * hash is inappropriate for the contents, or because the previous hash is incorrect).
    * @param blk
   */
-  public void append(Block blk) throws IllegalArgumentException {
+  public synchronized void append(Block blk) throws IllegalArgumentException {
     // Check if hash is valid and appropriate to add to BlockChain after last Block in 'this'.
-    if ((blk.getHash().isValid()) && (blk.getPrevHash().equals(this.last.data.getHash()))) {
-      // Create 'temp' Node for new Block.
-      Node temp = new Node(blk);
+    if ((blk.getHash().isValid(this.difficulty))
+        && (blk.getPrevHash().equals(this.last.data.getHash()))) {
       // Position block after the last Block in 'this'
-      this.last.next = temp;
-      // Update this.last
-      this.last = temp;
+      this.link(blk);
+      // Fold blocks beyond the prune depth into the snapshot.
+      this.prune();
     } else {
       throw new IllegalArgumentException();
     } // if
@@ -95,53 +268,186 @@ public class BlockChain {
   /**
    * Removes the last block from the chain, returning true. If the chain 
    * only contains a single block, then removeLast does nothing and returns false.
+   * Blocks that have been folded into the snapshot cannot be removed, so a pruned chain
+   * also returns false when only one unfolded block is left.
    * @return boolean
    */
-  public boolean removeLast() {
-    // If this contains one or fewer blocks, we cannot remove a block.
-    if (this.getSize() <= 1) {
+  public synchronized boolean removeLast() {
+    // If this contains one or fewer unfolded blocks, we cannot remove a block.
+    if (this.first == this.last) {
       return false;
     } // if
 
-    // Create Node at this.first.
-    Node mover = this.first;
-    // Progress mover to the second to last element of the BlockChain.
-    while (!mover.next.equals(this.last)) {
-      mover = mover.next;
-    } // while
+    // Find the second to last element of the BlockChain.
+    Node mover = this.index.get(this.index.size() - 2);
     // Update this.last to mover.
+    Block removed = this.last.data;
     this.last = mover;
     // Set original this.last to null.
     this.last.next = null;
+    this.index.remove(this.index.size() - 1);
+    this.numbers.remove(removed.getHash());
+    this.balance -= removed.getAmount();
+    this.publish(ChainEvents.Type.REMOVED, removed);
     return true;
   } // removeLast()
 
+  /**
+   * Replaces the blocks after the one that the first of the given blocks follows with the given
+   * blocks, throwing an IllegalArgumentException (and leaving the chain unchanged) if that block
+   * is not in the chain or the given blocks are not valid and linked one after another.
+   * @param blocks
+   */
+  public synchronized void reorg(Block[] blocks) throws IllegalArgumentException {
+    if (blocks.length == 0) {
+      throw new IllegalArgumentException();
+    } // if
+
+    // Find the block that the new blocks follow.
+    Integer forkNum = this.numbers.get(blocks[0].getPrevHash());
+    if (forkNum == null) {
+      throw new IllegalArgumentException();
+    } // if
+    Node fork = this.node(forkNum);
+
+    // Check that each new block is valid and follows the one before it.
+    Hash prevHash = fork.data.getHash();
+    int num = fork.data.getNum() + 1;
+    for (Block blk : blocks) {
+      if (!blk.getHash().isValid(this.difficulty) || !prevHash.equals(blk.getPrevHash())
+          || (blk.getNum() != num)) {
+        throw new IllegalArgumentException();
+      } // if
+      prevHash = blk.getHash();
+      num++;
+    } // for
+
+    // Drop the blocks after 'fork', then link in the new blocks.
+    for (Node mover = fork.next; mover != null; mover = mover.next) {
+      this.balance -= mover.data.getAmount();
+      this.numbers.remove(mover.data.getHash());
+    } // for
+    this.index.subList(this.head + forkNum + 1 - this.first.data.getNum(), this.index.size())
+        .clear();
+    this.last = fork;
+    this.last.next = null;
+    this.publish(ChainEvents.Type.REORGED, fork.data);
+    for (Block blk : blocks) {
+      this.link(blk);
+    } // for
+    this.prune();
+  } // reorg(Block[])
+
 
   /**
    * Returns the hash of the last block in the chain.
    * @return Hash
    */
-  public Hash getHash()  {
+  public synchronized Hash getHash()  {
     return this.last.data.getHash();
   } // getHash()
 
 
+  /**
+   * Returns a subscription that replays the blocks of the chain starting at the given height
+   * (or at the oldest kept block, if that is later) as APPENDED events, and then reports every
+   * change made after this call.
+   * @param fromHeight
+   * @return ChainEvents.Subscription
+   */
+  public synchronized ChainEvents.Subscription subscribe(int fromHeight) {
+    int from = Math.max(fromHeight, this.first.data.getNum());
+    return this.getEvents().subscribe(this.getBlocks(from, this.getSize() - from));
+  } // subscribe(int)
+
+  /**
+   * Returns the feed of changes to this chain, creating it if needed. Changes made before the
+   * feed was created are not in it.
+   * @return ChainEvents
+   */
+  public synchronized ChainEvents getEvents() {
+    if (this.events == null) {
+      this.events = new ChainEvents(EVENT_CAPACITY);
+    } // if
+    return this.events;
+  } // getEvents()
+
+
+  /**
+   * Returns the snapshot of the blocks folded away by pruning. Its height is -1 if no block
+   * has been folded. The snapshot does not change; later folds replace it.
+   * @return Snapshot
+   */
+  public synchronized Snapshot getSnapshot() {
+    return this.snapshot;
+  } // getSnapshot()
+
+
+  /**
+   * Returns up to count consecutive blocks of the chain, starting with the block numbered from.
+   * The returned array is empty if the chain has no block numbered from, including when that
+   * block has been folded into the snapshot.
+   * @param from
+   * @param count
+   * @return Block[]
+   */
+  public synchronized Block[] getBlocks(int from, int count) {
+    // Clamp 'count' to the number of blocks available after 'from'.
+    int available = from < this.first.data.getNum()
+        ? 0
+        : Math.max(0, Math.min(count, this.getSize() - from));
+    Block[] blocks = new Block[available];
+    if (available == 0) {
+      return blocks;
+    } // if
+
+    // Copy the blocks from the one numbered 'from' into 'blocks'.
+    int start = this.head + from - this.first.data.getNum();
+    for (int i = 0; i < available; i++) {
+      blocks[i] = this.index.get(start + i).data;
+    } // for
+    return blocks;
+  } // getBlocks(int, int)
+
+  /**
+   * Returns the number of the block in the chain with the given hash, or -1 if there is none.
+   * Only the snapshot's hash is known among the folded blocks.
+   * @param hash
+   * @return int
+   */
+  public synchronized int findHash(Hash hash) {
+    // Check the newest folded block.
+    if (hash.equals(this.snapshot.hash)) {
+      return this.snapshot.height;
+    } // if
+    // Look the hash up among the kept blocks.
+    Integer num = this.numbers.get(hash);
+    return num == null ? -1 : num;
+  } // findHash(Hash)
+
   /**
    * Walks the BlockChain and ensures that its blocks are consistent 
-   * (the balances are legal) and valid (as in append).
+   * (the balances are legal) and valid (as in append). Folded blocks were checked
+   * when they were folded; the walk starts from the snapshot.
    * @return boolean
    */
-  public boolean isValidBlockChain() {
+  public synchronized boolean isValidBlockChain() {
+    // Check the folded blocks, and that the first unfolded block follows them.
+    if (!this.snapshot.valid
+        || ((this.snapshot.hash != null) && !this.snapshot.hash.equals(this.first.data.getPrevHash()))) {
+      return false;
+    } // if
     // Create Node at this.first.
     Node mover = this.first;
     // Initialize balance of all transactions.
-    int balance = 0;
+    int balance = this.snapshot.balance;
     // While mover is not at the end of the BlockChain.
     while (mover != null) {
       // Add amount transferred in current block to 'balance'.
       balance += mover.data.getAmount();
       // Check that current hash is valid, that balance is positive, and that balance does not exceed Alexis' initial.
-      if (!mover.data.getHash().isValid() || (balance < 0) || (balance > this.first.data.getAmount())) {
+      if (!mover.data.getHash().isValid(this.difficulty) || (balance < 0)
+          || (balance > this.snapshot.initial)) {
         return false;
       } // if
       // Progress 'mover'.
@@ -155,12 +461,19 @@ public class BlockChain {
    * Alexis: <amt>, Blake: <amt> on a single line, e.g., Alexis: 300, Blake: 0.
    * @param pen
    */
-  public void printBalances(PrintWriter pen)  {
-    // Initialize variables to track Alexis' and Blake's respective balances.
-    int alexisBalance = this.first.data.getAmount();
-    int blakeBalance = 0;
-    // Create node.
-    Node mover = this.first.next;
+  public synchronized void printBalances(PrintWriter pen)  {
+    // Initialize variables to track Alexis' and Blake's respective balances,
+    // starting from the initial block or from the snapshot of the folded blocks.
+    int alexisBalance;
+    Node mover;
+    if (this.snapshot.height < 0) {
+      alexisBalance = this.first.data.getAmount();
+      mover = this.first.next;
+    } else {
+      alexisBalance = this.snapshot.balance;
+      mover = this.first;
+    } // if
+    int blakeBalance = this.snapshot.initial - alexisBalance;
 
     // While there is another node in the BlockChain.
     while (mover != null) {
@@ -177,11 +490,15 @@ public class BlockChain {
   /**
    * Returns a string representation of the BlockChain which is simply the 
    * string representation of each of its blocks, earliest to latest, one per line.
+   * A pruned chain starts with a line describing its snapshot.
    * @return String
    */
-  public String toString() {
+  public synchronized String toString() {
     // Create string to be returned.
     String str = ""; 
+    if (this.snapshot.height >= 0) {
+      str += ("Snapshot through Block " + this.snapshot.height + " (Balance: " + this.snapshot.balance + ", Initial: " + this.snapshot.initial + ", Hash: " + this.snapshot.hash + ")\n");
+    } // if
     // Create node at first Node of BlockChain.
     Node mover = this.first;
 
@@ -195,4 +512,59 @@ public class BlockChain {
     return str;
   } // toString()
 
+  // +----------------+
+  // | Helper methods |
+  // +----------------+---------------------------------------------------------------------------
+
+  /**
+   * Folds the oldest blocks into the snapshot until at most pruneDepth blocks are kept.
+   */
+  void prune() {
+    if (this.pruneDepth == 0) {
+      return;
+    } // if
+    while (this.last.data.getNum() - this.first.data.getNum() + 1 > this.pruneDepth) {
+      this.snapshot = this.snapshot.fold(this.first.data, this.difficulty);
+      this.numbers.remove(this.first.data.getHash());
+      this.first = this.first.next;
+      this.head++;
+    } // while
+    // Drop the folded nodes from the index once they make up half of it.
+    if (this.head > this.index.size() / 2) {
+      this.index.subList(0, this.head).clear();
+      this.head = 0;
+    } // if
+  } // prune()
+
+  /**
+   * Returns the kept node of the block with the given number. Must be called while synchronized.
+   */
+  Node node(int num) {
+    return this.index.get(this.head + num - this.first.data.getNum());
+  } // node(int)
+
+  /**
+   * Links a block in after the last one, indexing it and publishing the change. Must be called
+   * while synchronized.
+   */
+  void link(Block blk) {
+    Node temp = new Node(blk);
+    this.last.next = temp;
+    this.last = temp;
+    this.index.add(temp);
+    this.numbers.put(blk.getHash(), blk.getNum());
+    this.balance += blk.getAmount();
+    this.publish(ChainEvents.Type.APPENDED, blk);
+  } // link(Block)
+
+  /**
+   * Publishes a change to the feed, if anyone has asked for it. Must be called while
+   * synchronized.
+   */
+  void publish(ChainEvents.Type type, Block blk) {
+    if (this.events != null) {
+      this.events.publish(type, blk);
+    } // if
+  } // publish(ChainEvents.Type, Block)
+
 } // class BlockChain
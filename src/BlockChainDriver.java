@@ -1,4 +1,5 @@
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.util.Scanner;
 
 /**
@@ -10,6 +11,9 @@ import java.util.Scanner;
  *    Executes that command, potentially updating the blockchain and reporting back to the user.
  * Supports commands for: mine, append, remove, check, report, help, quit.
  * 
+ * If a port is given after the initial amount, the program also runs a ChainNode on that port,
+ * connects to any peers (host:port) given after it, and keeps its blockchain in sync with theirs.
+ * 
  * @author Tim Yu
  * @author Nye Tenerelli
  * @author Keely Miyamoto
@@ -17,7 +21,8 @@ import java.util.Scanner;
 public class BlockChainDriver {
   /**
    * Main method to interact with BlockChain.
-   * @param args - Enter Alexis' initial amount (must be > $0).
+   * @param args - Enter Alexis' initial amount (must be > $0), optionally followed by a port
+   *     to listen on and the host:port of each peer to connect to.
    */
   public static void main(String[] args) throws Exception {
     // Create PrintWriter objects for error messages ('redpen') 
@@ -30,7 +35,7 @@ public class BlockChainDriver {
     String command = "";
 
     // Check for appropriate number of command line args.
-    if (args.length != 1) {
+    if (args.length < 1) {
       redpen.println("Invalid amount of command line args.");
       System.exit(1);
     } // if
@@ -52,6 +57,22 @@ public class BlockChainDriver {
     // Initialize a new BlockChain using 'initial' amount.
     BlockChain blockChain = new BlockChain(initial);
 
+    // Start a node if a port was given, and connect it to the given peers.
+    ChainNode node = null;
+    if (args.length > 1) {
+      try {
+        node = new ChainNode(blockChain, Integer.parseInt(args[1]));
+        node.start();
+        for (int i = 2; i < args.length; i++) {
+          String[] peer = args[i].split(":");
+          node.connect(new InetSocketAddress(peer[0], Integer.parseInt(peer[1])));
+        } // for
+      } catch (Exception e) {
+        redpen.println("Could not start node: " + e.getMessage());
+        System.exit(1);
+      } // try/catch
+    } // if
+
     // While 'command' is not "quit"...
     while (!command.equals("quit")) {
       // Print 'blockChain' and read in next command.
@@ -100,9 +121,17 @@ public class BlockChainDriver {
         default :
           pen.println("Invalid command. Enter \"help\" to view valid commands.");
       } // switch
+
+      // Tell peers about any change to 'blockChain'.
+      if (node != null) {
+        node.announceTip();
+      } // if
       pen.println();
     } // while
     eyes.close();
+    if (node != null) {
+      node.close();
+    } // if
   } // main
 
 
@@ -0,0 +1,165 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * A file to test methods in the BlockChain class.
+ *
+ * @author Keely Miyamoto
+ * @author Nye Tenerelli
+ * @author Tim Yu
+ */
+public class BlockChainTests {
+  /**
+   * Returns the line printed by printBalances.
+   */
+  static String balances(BlockChain chain) {
+    StringWriter out = new StringWriter();
+    chain.printBalances(new PrintWriter(out, true));
+    return out.toString().trim();
+  } // balances(BlockChain)
+
+  /**
+   * Appends past the prune depth and checks that the snapshot keeps balances and validity.
+   */
+  @Test
+  public void pruneTest() throws Exception {
+    BlockChain chain = new BlockChain(300, 2);
+    chain.append(chain.mine(-100));
+    chain.append(chain.mine(40));
+    Hash folded = chain.getBlocks(1, 1)[0].getHash();
+    chain.append(chain.mine(-20));
+
+    // Blocks 0 and 1 are folded; blocks 2 and 3 are kept.
+    assertEquals(4, chain.getSize());
+    assertEquals(1, chain.getSnapshot().getHeight());
+    assertEquals(folded, chain.getSnapshot().getHash());
+    assertEquals(200, chain.getSnapshot().getBalance());
+    assertEquals(300, chain.getSnapshot().getInitial());
+    assertEquals(0, chain.getBlocks(1, 1).length);
+    assertEquals(2, chain.getBlocks(2, 5).length);
+
+    assertTrue(chain.isValidBlockChain());
+    assertEquals("Alexis: 220, Blake: 80", balances(chain));
+
+    // Only unfolded blocks can be removed.
+    assertTrue(chain.removeLast());
+    assertFalse(chain.removeLast());
+    assertEquals(3, chain.getSize());
+    assertEquals("Alexis: 240, Blake: 60", balances(chain));
+
+    // A snapshot already handed out does not change when more blocks are folded.
+    BlockChain.Snapshot before = chain.getSnapshot();
+    chain.append(chain.mine(10));
+    chain.append(chain.mine(10));
+    assertEquals(1, before.getHeight());
+    assertEquals(200, before.getBalance());
+    assertEquals(2, chain.getSnapshot().getHeight());
+    assertEquals(240, chain.getSnapshot().getBalance());
+    assertTrue(chain.getSnapshot().isValid());
+  } // pruneTest()
+
+  /**
+   * Subscribes part way along the chain and checks the replayed and published events.
+   */
+  @Test
+  public void subscribeTest() throws Exception {
+    BlockChain chain = new BlockChain(300);
+    chain.append(chain.mine(-10));
+    Hash forkHash = chain.getHash();
+    // No ring is allocated until someone subscribes.
+    assertNull(chain.events);
+    ChainEvents.Subscription sub = chain.subscribe(1);
+
+    chain.append(chain.mine(5));
+    chain.reorg(new Block[] {new Block(2, 7, forkHash)});
+    assertTrue(chain.removeLast());
+
+    ChainEvents.Event event = new ChainEvents.Event();
+    // Block 1 is replayed from the chain.
+    assertTrue(sub.poll(event));
+    assertEquals(ChainEvents.Type.APPENDED, event.getType());
+    assertEquals(-1, event.getSequence());
+    assertEquals(1, event.getHeight());
+    // Then the changes made after subscribing follow.
+    assertTrue(sub.poll(event));
+    assertEquals(ChainEvents.Type.APPENDED, event.getType());
+    assertEquals(5, event.getAmount());
+    assertTrue(sub.poll(event));
+    assertEquals(ChainEvents.Type.REORGED, event.getType());
+    assertEquals(1, event.getHeight());
+    assertEquals(forkHash, event.getHash());
+    assertTrue(sub.poll(event));
+    assertEquals(ChainEvents.Type.APPENDED, event.getType());
+    assertEquals(7, event.getAmount());
+    assertTrue(sub.poll(event));
+    assertEquals(ChainEvents.Type.REMOVED, event.getType());
+    assertEquals(2, event.getHeight());
+    // The feed starts with the first subscription, so the append of block 1 is not counted.
+    assertEquals(3, event.getSequence());
+    assertFalse(sub.poll(event));
+  } // subscribeTest()
+
+  /**
+   * Checks that a chain's difficulty applies to that chain only.
+   */
+  @Test
+  public void difficultyTest() throws Exception {
+    BlockChain easy = new BlockChain(300, 0, 1);
+    Block blk = easy.mine(-50);
+    easy.append(blk);
+    assertTrue(blk.getHash().isValid(1));
+    assertEquals(250, easy.getBalance());
+    assertTrue(easy.isValidBlockChain());
+
+    assertTrue(easy.removeLast());
+    assertEquals(300, easy.getBalance());
+  } // difficultyTest()
+
+  /**
+   * Checks that blocks are still found by number and hash after pruning, removal, and a reorg.
+   */
+  @Test
+  public void indexTest() throws Exception {
+    BlockChain chain = new BlockChain(100, 4, 0);
+    for (int i = 0; i < 10; i++) {
+      chain.append(chain.mine(-1));
+    } // for
+    Hash forkHash = chain.getBlocks(8, 1)[0].getHash();
+    Hash dropped = chain.getHash();
+    assertTrue(chain.removeLast());
+    assertEquals(-1, chain.findHash(dropped));
+    chain.append(chain.mine(-2));
+
+    Block nine = Block.mine(9, -3, forkHash, 0);
+    Block ten = Block.mine(10, -4, nine.getHash(), 0);
+    chain.reorg(new Block[] {nine, ten});
+
+    // A later block with no previous hash is rejected, leaving the chain unchanged.
+    Block orphan = Block.mine(11, -1, null, 0);
+    assertThrows(IllegalArgumentException.class,
+        () -> chain.reorg(new Block[] {Block.mine(10, -1, nine.getHash(), 0), orphan}));
+    assertEquals(ten, chain.getBlocks(10, 1)[0]);
+
+    // Blocks 0 to 6 are folded; 7 and 8 are kept, followed by the new 9 and 10.
+    assertEquals(11, chain.getSize());
+    assertEquals(0, chain.getBlocks(6, 1).length);
+    Block[] kept = chain.getBlocks(7, 10);
+    assertEquals(4, kept.length);
+    assertEquals(forkHash, kept[1].getHash());
+    assertEquals(nine, kept[2]);
+    assertEquals(ten, kept[3]);
+    assertEquals(9, chain.findHash(nine.getHash()));
+    assertEquals(8, chain.findHash(forkHash));
+    assertEquals(6, chain.findHash(chain.getSnapshot().getHash()));
+    assertEquals(100 - 8 - 3 - 4, chain.getBalance());
+    assertTrue(chain.isValidBlockChain());
+  } // indexTest()
+
+} // class BlockChainTests
@@ -0,0 +1,314 @@
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A feed of the changes made to a BlockChain, kept in a fixed-size ring buffer.
+ *
+ * Every event gets the next sequence number and is written into a slot that was allocated when
+ * the feed was created, so publishing does not allocate. The writer never waits for readers:
+ * a Subscription that falls more than a ring's worth of events behind skips ahead to the oldest
+ * event still held and counts the events it missed.
+ *
+ * Events are published by the BlockChain while it holds its own lock, so there is one writer at
+ * a time.
+ *
+ * @author Tim Yu
+ * @author Nye Tenerelli
+ * @author Keely Miyamoto
+ */
+public class ChainEvents {
+  // +-------+
+  // | Types |
+  // +-------+-------------------------------------------------------------------------------------
+
+  /**
+   * The kinds of change published.
+   */
+  public static enum Type {
+    // A block was appended at the tip.
+    APPENDED,
+    // The block at the tip was removed.
+    REMOVED,
+    // Every block above the event's height was replaced; APPENDED events for the new blocks follow.
+    REORGED
+  } // Type
+
+  /**
+   * A single event. Slots of the ring and the events filled in by subscribers are reused, so an
+   * Event should be copied if it needs to be kept.
+   */
+  public static class Event {
+    Type type;
+    long sequence;
+    int height;
+    int amount;
+    long nonce;
+    Hash hash;
+
+    /**
+     * Returns the kind of change.
+     */
+    public Type getType() {
+      return this.type;
+    } // getType()
+
+    /**
+     * Returns the sequence number of this event, or -1 for an event replayed from the chain.
+     */
+    public long getSequence() {
+      return this.sequence;
+    } // getSequence()
+
+    /**
+     * Returns the number of the block appended or removed, or the height a reorg kept.
+     */
+    public int getHeight() {
+      return this.height;
+    } // getHeight()
+
+    /**
+     * Returns the amount of the block appended or removed.
+     */
+    public int getAmount() {
+      return this.amount;
+    } // getAmount()
+
+    /**
+     * Returns the nonce of the block appended or removed.
+     */
+    public long getNonce() {
+      return this.nonce;
+    } // getNonce()
+
+    /**
+     * Returns the hash of the block appended or removed, or of the block a reorg kept.
+     */
+    public Hash getHash() {
+      return this.hash;
+    } // getHash()
+
+    /**
+     * Sets every field of this event.
+     */
+    void set(Type type, long sequence, int height, int amount, long nonce, Hash hash) {
+      this.type = type;
+      this.sequence = sequence;
+      this.height = height;
+      this.amount = amount;
+      this.nonce = nonce;
+      this.hash = hash;
+    } // set(Type, long, int, int, long, Hash)
+
+    /**
+     * Returns a string representation of this event.
+     */
+    public String toString() {
+      return this.type + " " + this.sequence + " (Block " + this.height + ", Amount: " + this.amount
+          + ", Nonce: " + this.nonce + ", Hash: " + this.hash + ")";
+    } // toString()
+  } // Event
+
+  /**
+   * A reader of the feed. Each subscription keeps its own position and should be used by one
+   * thread at a time.
+   */
+  public class Subscription {
+    // Blocks already in the chain when this subscription started, replayed before the ring.
+    private Block[] backlog;
+    private int backlogIndex = 0;
+    // Sequence number of the next event to read from the ring.
+    private long next;
+    // Number of events skipped because this subscription fell behind.
+    private long missed = 0;
+
+    // Constructor
+    Subscription(Block[] backlog, long next) {
+      this.backlog = backlog;
+      this.next = next;
+    } // Subscription(Block[], long)
+
+    /**
+     * Fills in the next event and returns true, or returns false if there is none yet.
+     * @param event
+     * @return boolean
+     */
+    public boolean poll(Event event) {
+      // Replay blocks from the chain first.
+      if (this.backlogIndex < this.backlog.length) {
+        Block blk = this.backlog[this.backlogIndex];
+        this.backlog[this.backlogIndex++] = null;
+        event.set(Type.APPENDED, -1, blk.getNum(), blk.getAmount(), blk.getNonce(), blk.getHash());
+        return true;
+      } // if
+
+      while (this.next <= ChainEvents.this.cursor) {
+        // Skip ahead if the writer has lapped us.
+        long oldest = ChainEvents.this.cursor - ChainEvents.this.ring.length + 1;
+        if (this.next < oldest) {
+          this.missed += oldest - this.next;
+          this.next = oldest;
+        } // if
+
+        // Copy the slot, then check that it was not overwritten while we copied.
+        int index = (int) (this.next & ChainEvents.this.mask);
+        if (ChainEvents.this.published.get(index) == this.next) {
+          Event slot = ChainEvents.this.ring[index];
+          event.set(slot.type, slot.sequence, slot.height, slot.amount, slot.nonce, slot.hash);
+          VarHandle.loadLoadFence();
+          if (ChainEvents.this.published.get(index) == this.next) {
+            this.next++;
+            return true;
+          } // if
+        } // if
+        // The slot was being rewritten; the next pass skips ahead past it.
+        Thread.onSpinWait();
+      } // while
+      return false;
+    } // poll(Event)
+
+    /**
+     * Fills in the next event, waiting until one is published.
+     * @param event
+     * @throws InterruptedException
+     */
+    public void take(Event event) throws InterruptedException {
+      while (!this.poll(event)) {
+        synchronized (ChainEvents.this.signal) {
+          ChainEvents.this.waiters++;
+          try {
+            if (this.next > ChainEvents.this.cursor) {
+              ChainEvents.this.signal.wait();
+            } // if
+          } finally {
+            ChainEvents.this.waiters--;
+          } // try/finally
+        } // synchronized
+      } // while
+    } // take(Event)
+
+    /**
+     * Returns the number of events this subscription skipped because it fell behind.
+     * @return long
+     */
+    public long getMissed() {
+      return this.missed;
+    } // getMissed()
+  } // Subscription
+
+  // +--------+
+  // | Fields |
+  // +--------+------------------------------------------------------------------------------------
+
+  /**
+   * The preallocated event slots.
+   */
+  private Event[] ring;
+
+  /**
+   * The sequence number held by each slot, or -1 while the slot is being written.
+   */
+  private AtomicLongArray published;
+
+  /**
+   * ring.length - 1, for turning sequence numbers into slot indices.
+   */
+  private int mask;
+
+  /**
+   * The sequence number of the last event published.
+   */
+  private volatile long cursor = -1;
+
+  /**
+   * Monitor used to wake subscribers waiting in take().
+   */
+  private Object signal = new Object();
+
+  /**
+   * The number of subscribers waiting in take(), guarded by signal.
+   */
+  private volatile int waiters = 0;
+
+  // +--------------+
+  // | Constructors |
+  // +--------------+------------------------------------------------------------------------------
+
+  /**
+   * Creates a feed holding the given number of recent events, which must be a power of two.
+   * @param capacity
+   */
+  public ChainEvents(int capacity) {
+    if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("capacity must be a power of two");
+    } // if
+    this.ring = new Event[capacity];
+    this.published = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      this.ring[i] = new Event();
+      this.published.set(i, -1);
+    } // for
+    this.mask = capacity - 1;
+  } // ChainEvents(int)
+
+  // +----------------+
+  // | Public methods |
+  // +----------------+----------------------------------------------------------------------------
+
+  /**
+   * Returns the sequence number of the last event published, or -1 if there is none.
+   * @return long
+   */
+  public long getCursor() {
+    return this.cursor;
+  } // getCursor()
+
+  /**
+   * Returns the number of events the ring holds.
+   * @return int
+   */
+  public int getCapacity() {
+    return this.ring.length;
+  } // getCapacity()
+
+  // +----------------+
+  // | Helper methods |
+  // +----------------+----------------------------------------------------------------------------
+
+  /**
+   * Starts a subscription that first replays the given blocks and then reads every event
+   * published after this call. The caller must hold the chain's lock so that no event is
+   * published between reading the blocks and starting the subscription.
+   */
+  Subscription subscribe(Block[] backlog) {
+    return new Subscription(backlog, this.cursor + 1);
+  } // subscribe(Block[])
+
+  /**
+   * Publishes an event about the given block.
+   */
+  void publish(Type type, Block blk) {
+    this.publish(type, blk.getNum(), blk.getAmount(), blk.getNonce(), blk.getHash());
+  } // publish(Type, Block)
+
+  /**
+   * Publishes an event. Only one thread may publish at a time.
+   */
+  void publish(Type type, int height, int amount, long nonce, Hash hash) {
+    long sequence = this.cursor + 1;
+    int index = (int) (sequence & this.mask);
+    // Mark the slot as being written, fill it in, then publish it.
+    this.published.set(index, -1);
+    VarHandle.storeStoreFence();
+    this.ring[index].set(type, sequence, height, amount, nonce, hash);
+    this.published.set(index, sequence);
+    this.cursor = sequence;
+
+    // Wake waiting subscribers, if there are any.
+    if (this.waiters > 0) {
+      synchronized (this.signal) {
+        this.signal.notifyAll();
+      } // synchronized
+    } // if
+  } // publish(Type, int, int, long, Hash)
+
+} // class ChainEvents
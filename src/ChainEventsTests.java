@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A file to test methods in the ChainEvents class.
+ *
+ * @author Keely Miyamoto
+ * @author Nye Tenerelli
+ * @author Tim Yu
+ */
+public class ChainEventsTests {
+  /**
+   * Publishes events that fit in the ring and reads them back in order.
+   */
+  @Test
+  public void pollInOrderTest() throws Exception {
+    ChainEvents events = new ChainEvents(8);
+    ChainEvents.Subscription sub = events.subscribe(new Block[0]);
+    ChainEvents.Event event = new ChainEvents.Event();
+    assertFalse(sub.poll(event));
+
+    for (int i = 0; i < 5; i++) {
+      events.publish(ChainEvents.Type.APPENDED, i, 10 * i, i, null);
+    } // for
+    for (int i = 0; i < 5; i++) {
+      assertTrue(sub.poll(event));
+      assertEquals(i, event.getSequence());
+      assertEquals(i, event.getHeight());
+      assertEquals(10 * i, event.getAmount());
+    } // for
+    assertFalse(sub.poll(event));
+    assertEquals(0, sub.getMissed());
+  } // pollInOrderTest()
+
+  /**
+   * Publishes more events than the ring holds and checks that the slow reader skips ahead.
+   */
+  @Test
+  public void overrunTest() throws Exception {
+    ChainEvents events = new ChainEvents(4);
+    ChainEvents.Subscription sub = events.subscribe(new Block[0]);
+    ChainEvents.Event event = new ChainEvents.Event();
+
+    for (int i = 0; i < 10; i++) {
+      events.publish(ChainEvents.Type.APPENDED, i, 0, 0, null);
+    } // for
+    assertTrue(sub.poll(event));
+    assertEquals(6, event.getSequence());
+    assertEquals(6, sub.getMissed());
+  } // overrunTest()
+
+  /**
+   * Checks that a waiting reader is woken by a publish from another thread.
+   */
+  @Test
+  public void takeTest() throws Exception {
+    ChainEvents events = new ChainEvents(4);
+    ChainEvents.Subscription sub = events.subscribe(new Block[0]);
+    Thread writer = new Thread(() -> {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        return;
+      } // try/catch
+      events.publish(ChainEvents.Type.REMOVED, 3, 7, 0, null);
+    });
+    writer.start();
+
+    ChainEvents.Event event = new ChainEvents.Event();
+    sub.take(event);
+    assertEquals(ChainEvents.Type.REMOVED, event.getType());
+    assertEquals(3, event.getHeight());
+    writer.join();
+  } // takeTest()
+
+} // class ChainEventsTests
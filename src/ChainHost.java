@@ -0,0 +1,188 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+/**
+ * Hosts many independent BlockChains in one process, keyed by ledger ID, and runs their mining
+ * on a shared MiningScheduler.
+ *
+ * Each ledger may run one mining job at a time, so that a block mined on its tip is still on the
+ * tip when it is appended.
+ *
+ * @author Tim Yu
+ * @author Nye Tenerelli
+ * @author Keely Miyamoto
+ */
+public class ChainHost {
+  // +--------+
+  // | Fields |
+  // +--------+------------------------------------------------------------------------------------
+
+  /**
+   * The scheduler that runs every ledger's mining jobs.
+   */
+  private MiningScheduler scheduler;
+
+  /**
+   * The prune depth given to each new BlockChain.
+   */
+  private int pruneDepth;
+
+  /**
+   * The difficulty given to each new BlockChain.
+   */
+  private int difficulty;
+
+  /**
+   * The hosted chains, by ledger ID. A ledger is missing until its first block is mined.
+   */
+  private ConcurrentHashMap<String, BlockChain> chains = new ConcurrentHashMap<String, BlockChain>();
+
+  /**
+   * A token for each registered ledger, by ID, so that a first block mined for a ledger that was
+   * since removed (and perhaps created again) is not hosted. Guarded by this host.
+   */
+  private HashMap<String, Object> registrations = new HashMap<String, Object>();
+
+  // +--------------+
+  // | Constructors |
+  // +--------------+------------------------------------------------------------------------------
+
+  /**
+   * Creates a host that mines with the given scheduler and prunes each chain to the given depth
+   * (0 keeps every block).
+   * @param scheduler
+   * @param pruneDepth
+   */
+  public ChainHost(MiningScheduler scheduler, int pruneDepth) {
+    this(scheduler, pruneDepth, Hash.DIFFICULTY);
+  } // ChainHost(MiningScheduler, int)
+
+  /**
+   * Creates a host like ChainHost(MiningScheduler, int) whose chains are mined at the given
+   * difficulty.
+   * @param scheduler
+   * @param pruneDepth
+   * @param difficulty
+   */
+  public ChainHost(MiningScheduler scheduler, int pruneDepth, int difficulty) {
+    this.scheduler = scheduler;
+    this.pruneDepth = pruneDepth;
+    this.difficulty = difficulty;
+  } // ChainHost(MiningScheduler, int, int)
+
+  // +----------------+
+  // | Public methods |
+  // +----------------+----------------------------------------------------------------------------
+
+  /**
+   * Registers a ledger with the scheduler and queues the mining of its first block with the
+   * given initial amount. The chain is available from getChain once the returned Future is done.
+   * If the ledger is removed first, the Future is cancelled or fails with an
+   * IllegalStateException.
+   * @param id
+   * @param initial
+   * @param priority - used by the PRIORITY policy
+   * @param maxQueued - the most mining jobs that may wait for this ledger
+   * @return Future<BlockChain>
+   */
+  public Future<BlockChain> createLedger(String id, int initial, int priority, int maxQueued) {
+    Object token = new Object();
+    // Submit under the lock too, so that a concurrent removeLedger cannot unregister the ledger
+    // between registering it and queueing its first block.
+    synchronized (this) {
+      this.scheduler.register(id, priority, maxQueued, 1);
+      this.registrations.put(id, token);
+      return this.scheduler.submit(id, () -> {
+        BlockChain chain = new BlockChain(initial, this.pruneDepth, this.difficulty);
+        synchronized (this) {
+          if (this.registrations.get(id) != token) {
+            throw new IllegalStateException("ledger " + id + " was removed");
+          } // if
+          this.chains.put(id, chain);
+        } // synchronized
+        return chain;
+      });
+    } // synchronized
+  } // createLedger(String, int, int, int)
+
+  /**
+   * Removes a ledger, cancelling its queued mining jobs.
+   * @param id
+   */
+  public synchronized void removeLedger(String id) {
+    this.scheduler.unregister(id);
+    this.registrations.remove(id);
+    this.chains.remove(id);
+  } // removeLedger(String)
+
+  /**
+   * Returns the chain of the given ledger, or null if it does not exist (yet).
+   * @param id
+   * @return BlockChain
+   */
+  public BlockChain getChain(String id) {
+    return this.chains.get(id);
+  } // getChain(String)
+
+  /**
+   * Returns a read-only view of the IDs of the ledgers whose chains exist.
+   * @return Set<String>
+   */
+  public Set<String> getLedgers() {
+    return Collections.unmodifiableSet(this.chains.keySet());
+  } // getLedgers()
+
+  /**
+   * Queues the mining of a block with the given amount on the ledger's tip. The block is not
+   * appended.
+   * @param id
+   * @param amount
+   * @return Future<Block>
+   */
+  public Future<Block> mine(String id, int amount) {
+    return this.scheduler.submit(id, () -> this.chainFor(id).mine(amount));
+  } // mine(String, int)
+
+  /**
+   * Queues the mining of a block with the given amount on the ledger's tip and appends it. The
+   * Future fails with an IllegalArgumentException if the tip changed while mining.
+   * @param id
+   * @param amount
+   * @return Future<Block>
+   */
+  public Future<Block> mineAndAppend(String id, int amount) {
+    return this.scheduler.submit(id, () -> {
+      BlockChain chain = this.chainFor(id);
+      Block blk = chain.mine(amount);
+      chain.append(blk);
+      return blk;
+    });
+  } // mineAndAppend(String, int)
+
+  /**
+   * Returns the scheduler, for its queue-depth metrics.
+   * @return MiningScheduler
+   */
+  public MiningScheduler getScheduler() {
+    return this.scheduler;
+  } // getScheduler()
+
+  // +----------------+
+  // | Helper methods |
+  // +----------------+----------------------------------------------------------------------------
+
+  /**
+   * Returns the chain of the given ledger, throwing an IllegalStateException if it does not exist.
+   */
+  private BlockChain chainFor(String id) {
+    BlockChain chain = this.chains.get(id);
+    if (chain == null) {
+      throw new IllegalStateException("ledger " + id + " has no chain");
+    } // if
+    return chain;
+  } // chainFor(String)
+
+} // class ChainHost
@@ -0,0 +1,95 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A file to test methods in the ChainHost class.
+ *
+ * @author Keely Miyamoto
+ * @author Nye Tenerelli
+ * @author Tim Yu
+ */
+public class ChainHostTests {
+  /**
+   * Creates a ledger, appends to it, and removes it.
+   */
+  @Test
+  public void createAppendRemoveTest() throws Exception {
+    MiningScheduler scheduler = new MiningScheduler(2, MiningScheduler.Policy.FAIR_SHARE);
+    ChainHost host = new ChainHost(scheduler, 0, 1);
+    BlockChain chain = host.createLedger("a", 100, 0, 10).get();
+    assertTrue(chain == host.getChain("a"));
+
+    Block blk = host.mineAndAppend("a", -10).get();
+    assertEquals(1, blk.getNum());
+    assertEquals(2, chain.getSize());
+    assertEquals(90, chain.getBalance());
+    assertTrue(chain.isValidBlockChain());
+    assertEquals(1, host.getLedgers().size());
+    assertThrows(UnsupportedOperationException.class, () -> host.getLedgers().remove("a"));
+
+    host.removeLedger("a");
+    assertNull(host.getChain("a"));
+    assertTrue(host.getLedgers().isEmpty());
+    assertThrows(RejectedExecutionException.class, () -> host.mineAndAppend("a", -10));
+    scheduler.close();
+  } // createAppendRemoveTest()
+
+  /**
+   * Removes a ledger before its first block is mined, and checks that it is never hosted.
+   */
+  @Test
+  public void removeBeforeFirstBlockTest() throws Exception {
+    MiningScheduler scheduler = new MiningScheduler(1, MiningScheduler.Policy.FAIR_SHARE);
+    CountDownLatch release = MiningSchedulerTests.block(scheduler);
+    ChainHost host = new ChainHost(scheduler, 0, 1);
+    Future<BlockChain> first = host.createLedger("a", 100, 0, 10);
+    host.removeLedger("a");
+    assertTrue(first.isCancelled());
+
+    // A ledger created again under the same ID gets its own chain.
+    Future<BlockChain> second = host.createLedger("a", 50, 0, 10);
+    release.countDown();
+    assertEquals(50, second.get().getBalance());
+    assertTrue(second.get() == host.getChain("a"));
+    scheduler.close();
+  } // removeBeforeFirstBlockTest()
+
+  /**
+   * Queues many appends to one ledger on several workers, and checks that they run one at a
+   * time in the order they were queued.
+   */
+  @Test
+  public void appendOrderTest() throws Exception {
+    MiningScheduler scheduler = new MiningScheduler(4, MiningScheduler.Policy.FAIR_SHARE);
+    ChainHost host = new ChainHost(scheduler, 0, 1);
+    BlockChain chain = host.createLedger("a", 1000, 0, 50).get();
+    host.createLedger("b", 1000, 0, 50).get();
+    List<Future<Block>> appends = new ArrayList<Future<Block>>();
+    for (int i = 1; i <= 20; i++) {
+      appends.add(host.mineAndAppend("a", -i));
+      host.mineAndAppend("b", -i);
+    } // for
+    for (Future<Block> append : appends) {
+      // Fails with an IllegalArgumentException if two jobs ran at once.
+      append.get();
+    } // for
+
+    assertEquals(21, chain.getSize());
+    Block[] blocks = chain.getBlocks(1, 20);
+    for (int i = 0; i < 20; i++) {
+      assertEquals(-(i + 1), blocks[i].getAmount());
+    } // for
+    assertTrue(chain.isValidBlockChain());
+    scheduler.close();
+  } // appendOrderTest()
+
+} // class ChainHostTests
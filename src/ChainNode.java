@@ -0,0 +1,723 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A peer-to-peer node that keeps a BlockChain in sync with other nodes over non-blocking sockets.
+ *
+ * A single thread runs a Selector over the listening socket and every peer connection. Nodes
+ * announce their tip (height and hash) to their peers; a node that learns of a longer chain
+ * requests the missing blocks in ranges, keeping several range requests in flight at once so
+ * that catching up is not limited to one batch per round trip. Every received block is rebuilt
+ * from its number, amount, and nonce on top of the local tip and checked to leave a legal balance,
+ * then validated by BlockChain.append before it becomes part of the local chain.
+ *
+ * The first request of each round sends a locator: the hashes of our most recent blocks, then of
+ * exponentially older ones. The peer answers with the blocks after the newest of those it holds,
+ * so if the two chains have diverged, the answer starts at the block after their common ancestor.
+ * Those blocks, and the ones after them, are collected as a competing fork; once the fork is
+ * longer than the local chain and leaves legal balances, the local chain is reorganized onto it.
+ *
+ * Blocks are only ever sent, never snapshots, so a peer can only catch up from a node whose chain
+ * still holds the peer's tip. A node on a pruned chain therefore cannot bring up to date a fresh
+ * peer, or any peer that fell behind by more than the prune depth: that peer's GET_AFTER finds no
+ * block and is answered with nothing. Such a peer must sync from an unpruned node instead.
+ *
+ * All access to the BlockChain is synchronized on the chain itself; other threads that modify
+ * the chain should do the same and then call announceTip().
+ *
+ * @author Tim Yu
+ * @author Nye Tenerelli
+ * @author Keely Miyamoto
+ */
+public class ChainNode implements Closeable {
+  // +-----------+
+  // | Constants |
+  // +-----------+---------------------------------------------------------------------------------
+
+  /**
+   * Message announcing a tip: int height, then the hash of the last block.
+   */
+  static final byte TIP = 1;
+
+  /**
+   * Message requesting blocks by height: int first block number, int count.
+   */
+  static final byte GET_RANGE = 2;
+
+  /**
+   * Message requesting the blocks after the newest block the peer holds among a locator: int
+   * count, then one or more hashes, newest first.
+   */
+  static final byte GET_AFTER = 3;
+
+  /**
+   * Message carrying blocks: int count, then (int num, int amount, long nonce) per block.
+   */
+  static final byte BLOCKS = 4;
+
+  /**
+   * The number of bytes used to send one block.
+   */
+  static final int BLOCK_BYTES = Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+  /**
+   * The number of bytes in a hash.
+   */
+  static final int HASH_BYTES = 32;
+
+  /**
+   * The most hashes sent in a locator.
+   */
+  static final int MAX_LOCATOR = 48;
+
+  /**
+   * The number of most recent blocks whose hashes all go in a locator before it starts skipping.
+   */
+  static final int LOCATOR_DENSE = 10;
+
+  /**
+   * The maximum number of blocks requested (and sent) in a single range.
+   */
+  static final int BATCH_SIZE = 128;
+
+  /**
+   * The maximum number of range requests in flight to a single peer.
+   */
+  static final int PIPELINE_DEPTH = 8;
+
+  /**
+   * The largest frame a peer may send, in bytes.
+   */
+  static final int MAX_FRAME = 1 + Integer.BYTES + BATCH_SIZE * BLOCK_BYTES;
+
+  // +--------+
+  // | Fields |
+  // +--------+------------------------------------------------------------------------------------
+
+  // A nested static class for the state of one peer connection.
+  static class Peer {
+    SocketChannel channel;
+    ByteBuffer in = ByteBuffer.allocate(Integer.BYTES + MAX_FRAME);
+    ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+    // Height of the peer's chain, as last announced.
+    int remoteHeight = 0;
+    // Number of the next block to request from this peer.
+    int nextRequest = 0;
+    // Number of range requests sent but not yet answered.
+    int outstanding = 0;
+    // Whether the next BLOCKS frame from this peer answers a GET_AFTER.
+    boolean afterPending = false;
+    // Blocks of a competing fork being collected from this peer, or null, and the number of the
+    // first of them.
+    ArrayList<Block> fork = null;
+    int forkStart = 0;
+
+    // Constructor
+    public Peer(SocketChannel channel) {
+      this.channel = channel;
+    } // Peer(SocketChannel)
+  } // Peer
+
+  /**
+   * The chain kept in sync by this node.
+   */
+  private BlockChain chain;
+
+  /**
+   * The selector for the listening socket and all peer connections.
+   */
+  private Selector selector;
+
+  /**
+   * The listening socket.
+   */
+  private ServerSocketChannel server;
+
+  /**
+   * The connected peers. Only the selector thread modifies this list.
+   */
+  private CopyOnWriteArrayList<Peer> peers = new CopyOnWriteArrayList<Peer>();
+
+  /**
+   * Work handed to the selector thread by other threads.
+   */
+  private ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+  /**
+   * The thread running the selector loop.
+   */
+  private Thread loop;
+
+  /**
+   * Whether the selector loop should keep running.
+   */
+  private volatile boolean running;
+
+  // +--------------+
+  // | Constructors |
+  // +--------------+------------------------------------------------------------------------------
+
+  /**
+   * Creates a node for the given chain listening on the given port of the loopback interface
+   * (0 picks a free port). The node does nothing until start() is called.
+   * @param chain
+   * @param port
+   * @throws IOException
+   */
+  public ChainNode(BlockChain chain, int port) throws IOException {
+    this(chain, new InetSocketAddress("127.0.0.1", port));
+  } // ChainNode(BlockChain, int)
+
+  /**
+   * Creates a node for the given chain listening on the given address.
+   * @param chain
+   * @param address
+   * @throws IOException
+   */
+  public ChainNode(BlockChain chain, InetSocketAddress address) throws IOException {
+    this.chain = chain;
+    this.selector = Selector.open();
+    this.server = ServerSocketChannel.open();
+    this.server.bind(address);
+    this.server.configureBlocking(false);
+    this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+  } // ChainNode(BlockChain, InetSocketAddress)
+
+  // +----------------+
+  // | Public methods |
+  // +----------------+----------------------------------------------------------------------------
+
+  /**
+   * Starts the selector thread.
+   */
+  public void start() {
+    this.running = true;
+    this.loop = new Thread(this::run, "ChainNode-" + this.getPort());
+    this.loop.setDaemon(true);
+    this.loop.start();
+  } // start()
+
+  /**
+   * Returns the port this node listens on.
+   * @return int
+   */
+  public int getPort() {
+    return this.server.socket().getLocalPort();
+  } // getPort()
+
+  /**
+   * Connects to the node at the given address. The two nodes exchange tips once connected.
+   * @param address
+   * @throws IOException
+   */
+  public void connect(InetSocketAddress address) throws IOException {
+    SocketChannel channel = SocketChannel.open();
+    channel.configureBlocking(false);
+    channel.connect(address);
+    this.submit(() -> {
+      try {
+        channel.register(this.selector, SelectionKey.OP_CONNECT, new Peer(channel));
+      } catch (IOException e) {
+        closeQuietly(channel);
+      } // try/catch
+    });
+  } // connect(InetSocketAddress)
+
+  /**
+   * Announces the current tip of the chain to every peer. Call this after changing the chain.
+   */
+  public void announceTip() {
+    this.submit(() -> {
+      for (Peer peer : this.peers) {
+        sendTip(peer);
+      } // for
+    });
+  } // announceTip()
+
+  /**
+   * Returns the number of connected peers.
+   * @return int
+   */
+  public int getPeerCount() {
+    return this.peers.size();
+  } // getPeerCount()
+
+  /**
+   * Stops the selector thread and closes every connection.
+   */
+  public void close() throws IOException {
+    this.running = false;
+    this.selector.wakeup();
+    if (this.loop != null) {
+      try {
+        this.loop.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } // try/catch
+    } // if
+    for (SelectionKey key : this.selector.keys()) {
+      closeQuietly(key.channel());
+    } // for
+    this.selector.close();
+  } // close()
+
+  // +----------------+
+  // | Helper methods |
+  // +----------------+----------------------------------------------------------------------------
+
+  /**
+   * Hands a task to the selector thread.
+   */
+  private void submit(Runnable task) {
+    this.tasks.add(task);
+    this.selector.wakeup();
+  } // submit(Runnable)
+
+  /**
+   * The selector loop.
+   */
+  private void run() {
+    while (this.running) {
+      try {
+        this.selector.select();
+        // Run work handed over by other threads.
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) {
+          task.run();
+        } // while
+        // Handle ready channels.
+        Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          try {
+            handle(key);
+          } catch (IOException | RuntimeException e) {
+            drop(key);
+          } // try/catch
+        } // while
+      } catch (IOException e) {
+        this.running = false;
+      } // try/catch
+    } // while
+  } // run()
+
+  /**
+   * Handles a single ready key.
+   */
+  private void handle(SelectionKey key) throws IOException {
+    if (!key.isValid()) {
+      return;
+    } // if
+    if (key.isAcceptable()) {
+      SocketChannel channel = this.server.accept();
+      if (channel != null) {
+        channel.configureBlocking(false);
+        addPeer(channel.register(this.selector, SelectionKey.OP_READ), new Peer(channel));
+      } // if
+      return;
+    } // if
+
+    Peer peer = (Peer) key.attachment();
+    if (key.isConnectable()) {
+      peer.channel.finishConnect();
+      key.interestOps(SelectionKey.OP_READ);
+      addPeer(key, peer);
+    } // if
+    if (key.isValid() && key.isReadable()) {
+      if (peer.channel.read(peer.in) < 0) {
+        throw new IOException("peer closed connection");
+      } // if
+      readFrames(peer);
+    } // if
+    if (key.isValid() && key.isWritable()) {
+      flush(peer);
+    } // if
+  } // handle(SelectionKey)
+
+  /**
+   * Records a newly connected peer and sends it our tip.
+   */
+  private void addPeer(SelectionKey key, Peer peer) {
+    key.attach(peer);
+    this.peers.add(peer);
+    sendTip(peer);
+  } // addPeer(SelectionKey, Peer)
+
+  /**
+   * Forgets the peer of the given key and closes its connection.
+   */
+  private void drop(SelectionKey key) {
+    this.peers.remove(key.attachment());
+    key.cancel();
+    closeQuietly(key.channel());
+  } // drop(SelectionKey)
+
+  /**
+   * Parses and handles every complete frame in the peer's input buffer.
+   */
+  private void readFrames(Peer peer) throws IOException {
+    ByteBuffer in = peer.in;
+    in.flip();
+    while (in.remaining() >= Integer.BYTES) {
+      int length = in.getInt(in.position());
+      if (length <= 0 || length > MAX_FRAME) {
+        throw new IOException("bad frame length " + length);
+      } // if
+      if (in.remaining() < Integer.BYTES + length) {
+        break;
+      } // if
+      in.getInt();
+      int end = in.position() + length;
+      ByteBuffer frame = in.slice(in.position(), length);
+      in.position(end);
+      handleFrame(peer, frame);
+    } // while
+    in.compact();
+  } // readFrames(Peer)
+
+  /**
+   * Handles a single frame received from the peer.
+   */
+  private void handleFrame(Peer peer, ByteBuffer frame) throws IOException {
+    byte type = frame.get();
+    switch (type) {
+      // Peer announced its tip: fetch anything we are missing.
+      case TIP :
+        peer.remoteHeight = frame.getInt();
+        requestMore(peer);
+        break;
+
+      // Peer asked for a range of blocks by height.
+      case GET_RANGE : {
+        int from = frame.getInt();
+        int count = Math.min(frame.getInt(), BATCH_SIZE);
+        Block[] blocks;
+        synchronized (this.chain) {
+          blocks = this.chain.getBlocks(from, count);
+        } // synchronized
+        sendBlocks(peer, blocks);
+        break;
+      }
+
+      // Peer asked for the blocks after the newest block of a locator that we hold.
+      case GET_AFTER : {
+        int count = Math.min(frame.getInt(), BATCH_SIZE);
+        Block[] blocks = new Block[0];
+        synchronized (this.chain) {
+          while (frame.remaining() >= HASH_BYTES) {
+            byte[] hashBytes = new byte[HASH_BYTES];
+            frame.get(hashBytes);
+            int num = this.chain.findHash(new Hash(hashBytes));
+            if (num >= 0) {
+              blocks = this.chain.getBlocks(num + 1, count);
+              break;
+            } // if
+          } // while
+        } // synchronized
+        sendBlocks(peer, blocks);
+        break;
+      }
+
+      // Peer answered one of our requests.
+      case BLOCKS : {
+        boolean after = peer.afterPending;
+        peer.afterPending = false;
+        peer.outstanding = Math.max(0, peer.outstanding - 1);
+        receiveBlocks(peer, frame, after);
+        requestMore(peer);
+        break;
+      }
+
+      default :
+        throw new IOException("unknown message type " + type);
+    } // switch
+  } // handleFrame(Peer, ByteBuffer)
+
+  /**
+   * Validates and appends the blocks in a BLOCKS frame. Blocks that do not extend the local tip
+   * (or the fork being collected from the peer) are skipped; the first block that fails
+   * validation (a bad hash, or a balance outside [0, initial]) ends the batch. In the answer to
+   * a GET_AFTER, blocks below the local tip that differ from ours start a competing fork, which
+   * replaces the local blocks once it is longer.
+   */
+  private void receiveBlocks(Peer source, ByteBuffer frame, boolean after) {
+    int count = frame.getInt();
+    boolean grew = false;
+    synchronized (this.chain) {
+      try {
+        for (int i = 0; i < count; i++) {
+          int num = frame.getInt();
+          int amount = frame.getInt();
+          long nonce = frame.getLong();
+          int size = this.chain.getSize();
+          if (source.fork != null) {
+            // Extend the fork being collected.
+            if (num != source.forkStart + source.fork.size()) {
+              continue;
+            } // if
+            Hash prevHash = source.fork.get(source.fork.size() - 1).getHash();
+            source.fork.add(this.rebuild(num, amount, prevHash, nonce));
+          } else if (num == size) {
+            // Extend the local tip.
+            if (!this.legalBalance((long) this.chain.getBalance() + amount)) {
+              throw new IllegalArgumentException("balance out of range");
+            } // if
+            this.chain.append(new Block(num, amount, this.chain.getHash(), nonce));
+            grew = true;
+          } else if (after && (num > 0) && (num < size)) {
+            // Skip blocks we share with the peer; the first that differs starts a fork.
+            Block blk = this.rebuild(num, amount, this.hashAt(num - 1), nonce);
+            if (!blk.getHash().equals(this.hashAt(num))) {
+              source.fork = new ArrayList<Block>();
+              source.fork.add(blk);
+              source.forkStart = num;
+            } // if
+          } // if
+        } // for
+        if (source.fork != null
+            && source.forkStart + source.fork.size() > this.chain.getSize()) {
+          this.adoptFork(source);
+          grew = true;
+        } // if
+      } catch (IllegalArgumentException | NoSuchAlgorithmException e) {
+        // The peer's chain is not valid on ours; stop until it announces a new tip.
+        source.fork = null;
+        source.remoteHeight = this.chain.getSize();
+      } // try/catch
+      if (count == 0) {
+        // The peer no longer has the blocks we asked for (or none that follow ours).
+        source.fork = null;
+        source.remoteHeight = Math.min(source.remoteHeight, this.chain.getSize());
+      } // if
+    } // synchronized
+
+    // Pass the news on to the other peers.
+    if (grew) {
+      for (Peer peer : this.peers) {
+        if (peer != source) {
+          sendTip(peer);
+        } // if
+      } // for
+    } // if
+  } // receiveBlocks(Peer, ByteBuffer)
+
+  /**
+   * Rebuilds a block from a peer on the given previous hash, throwing an
+   * IllegalArgumentException if its hash is not valid for the chain.
+   */
+  private Block rebuild(int num, int amount, Hash prevHash, long nonce)
+      throws NoSuchAlgorithmException {
+    if (prevHash == null) {
+      throw new IllegalArgumentException("no block before " + num);
+    } // if
+    Block blk = new Block(num, amount, prevHash, nonce);
+    if (!blk.getHash().isValid(this.chain.getDifficulty())) {
+      throw new IllegalArgumentException("invalid block " + num);
+    } // if
+    return blk;
+  } // rebuild(int, int, Hash, long)
+
+  /**
+   * Reorganizes the chain onto the fork collected from the peer, throwing an
+   * IllegalArgumentException (and leaving the chain unchanged) if the fork would leave a
+   * balance outside [0, initial] or does not follow a kept block. Must be called while
+   * synchronized on the chain.
+   */
+  private void adoptFork(Peer source) {
+    int size = this.chain.getSize();
+    Block[] replaced = this.chain.getBlocks(source.forkStart, size - source.forkStart);
+    if (replaced.length != size - source.forkStart) {
+      throw new IllegalArgumentException("fork starts before the kept blocks");
+    } // if
+    long balance = this.chain.getBalance();
+    for (Block blk : replaced) {
+      balance -= blk.getAmount();
+    } // for
+    for (Block blk : source.fork) {
+      balance += blk.getAmount();
+      if (!this.legalBalance(balance)) {
+        throw new IllegalArgumentException("balance out of range");
+      } // if
+    } // for
+    this.chain.reorg(source.fork.toArray(new Block[0]));
+    source.fork = null;
+  } // adoptFork(Peer)
+
+  /**
+   * Returns the hash of the block with the given number, which may be the snapshot's, or null
+   * if the chain does not know it. Must be called while synchronized on the chain.
+   */
+  private Hash hashAt(int num) {
+    BlockChain.Snapshot snapshot = this.chain.getSnapshot();
+    if (num == snapshot.getHeight()) {
+      return snapshot.getHash();
+    } // if
+    Block[] blocks = this.chain.getBlocks(num, 1);
+    return blocks.length == 0 ? null : blocks[0].getHash();
+  } // hashAt(int)
+
+  /**
+   * Returns whether a balance lies in [0, initial]. Must be called while synchronized on the
+   * chain.
+   */
+  private boolean legalBalance(long balance) {
+    return (balance >= 0) && (balance <= this.chain.getSnapshot().getInitial());
+  } // legalBalance(long)
+
+  /**
+   * Sends range requests to the peer until the pipeline is full or every block the peer has
+   * announced has been requested. The first request of a round sends a locator, so that a peer
+   * on a different fork answers with the blocks after our common ancestor; while a fork is being
+   * collected, requests continue from its end.
+   */
+  private void requestMore(Peer peer) {
+    int size;
+    synchronized (this.chain) {
+      size = this.chain.getSize();
+    } // synchronized
+
+    int base = (peer.fork == null) ? size : peer.forkStart + peer.fork.size();
+    if (peer.outstanding == 0 || peer.nextRequest < base) {
+      peer.nextRequest = base;
+    } // if
+    while (peer.outstanding < PIPELINE_DEPTH && peer.nextRequest < peer.remoteHeight) {
+      int count = Math.min(BATCH_SIZE, peer.remoteHeight - peer.nextRequest);
+      if (peer.outstanding == 0 && peer.fork == null && peer.nextRequest == size) {
+        ArrayList<Hash> locator = this.locator();
+        ByteBuffer msg = frame(GET_AFTER, Integer.BYTES + locator.size() * HASH_BYTES);
+        msg.putInt(count);
+        for (Hash hash : locator) {
+          msg.put(hash.getData());
+        } // for
+        send(peer, msg);
+        peer.afterPending = true;
+      } else {
+        ByteBuffer msg = frame(GET_RANGE, 2 * Integer.BYTES);
+        msg.putInt(peer.nextRequest).putInt(count);
+        send(peer, msg);
+      } // if
+      peer.nextRequest += count;
+      peer.outstanding++;
+    } // while
+  } // requestMore(Peer)
+
+  /**
+   * Returns the hashes of the most recent blocks, then of exponentially older ones, ending with
+   * the oldest kept block and the snapshot's.
+   */
+  private ArrayList<Hash> locator() {
+    ArrayList<Hash> locator = new ArrayList<Hash>();
+    synchronized (this.chain) {
+      int oldest = this.chain.getSnapshot().getHeight() + 1;
+      int step = 1;
+      for (int num = this.chain.getSize() - 1;
+          (num >= oldest) && (locator.size() < MAX_LOCATOR - 2); num -= step) {
+        locator.add(this.hashAt(num));
+        if (locator.size() >= LOCATOR_DENSE) {
+          step *= 2;
+        } // if
+      } // for
+      if (!locator.contains(this.hashAt(oldest))) {
+        locator.add(this.hashAt(oldest));
+      } // if
+      if (oldest > 0) {
+        locator.add(this.hashAt(oldest - 1));
+      } // if
+    } // synchronized
+    return locator;
+  } // locator()
+
+  /**
+   * Sends our tip to the peer.
+   */
+  private void sendTip(Peer peer) {
+    int size;
+    byte[] hashBytes;
+    synchronized (this.chain) {
+      size = this.chain.getSize();
+      hashBytes = this.chain.getHash().getData();
+    } // synchronized
+    ByteBuffer msg = frame(TIP, Integer.BYTES + hashBytes.length);
+    msg.putInt(size).put(hashBytes);
+    send(peer, msg);
+  } // sendTip(Peer)
+
+  /**
+   * Sends the given blocks to the peer.
+   */
+  private void sendBlocks(Peer peer, Block[] blocks) {
+    ByteBuffer msg = frame(BLOCKS, Integer.BYTES + blocks.length * BLOCK_BYTES);
+    msg.putInt(blocks.length);
+    for (Block blk : blocks) {
+      msg.putInt(blk.getNum()).putInt(blk.getAmount()).putLong(blk.getNonce());
+    } // for
+    send(peer, msg);
+  } // sendBlocks(Peer, Block[])
+
+  /**
+   * Allocates a frame of the given type with room for a payload of the given size.
+   */
+  static ByteBuffer frame(byte type, int payload) {
+    ByteBuffer msg = ByteBuffer.allocate(Integer.BYTES + 1 + payload);
+    msg.putInt(1 + payload).put(type);
+    return msg;
+  } // frame(byte, int)
+
+  /**
+   * Queues a finished frame for the peer and tries to write it.
+   */
+  private void send(Peer peer, ByteBuffer msg) {
+    msg.flip();
+    peer.out.add(msg);
+    try {
+      flush(peer);
+    } catch (IOException e) {
+      drop(peer.channel.keyFor(this.selector));
+    } // try/catch
+  } // send(Peer, ByteBuffer)
+
+  /**
+   * Writes as much queued output as the socket accepts, waiting for OP_WRITE if it fills up.
+   */
+  private void flush(Peer peer) throws IOException {
+    while (!peer.out.isEmpty()) {
+      ByteBuffer head = peer.out.peek();
+      peer.channel.write(head);
+      if (head.hasRemaining()) {
+        break;
+      } // if
+      peer.out.poll();
+    } // while
+    SelectionKey key = peer.channel.keyFor(this.selector);
+    if (key != null && key.isValid()) {
+      key.interestOps(peer.out.isEmpty()
+          ? SelectionKey.OP_READ
+          : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    } // if
+  } // flush(Peer)
+
+  /**
+   * Closes a channel, ignoring any error.
+   */
+  private static void closeQuietly(Closeable channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // Nothing more to do.
+    } // try/catch
+  } // closeQuietly(Closeable)
+
+} // class ChainNode
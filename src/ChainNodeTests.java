@@ -0,0 +1,339 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * A file to test syncing BlockChains between ChainNodes on the loopback interface.
+ *
+ * @author Keely Miyamoto
+ * @author Nye Tenerelli
+ * @author Tim Yu
+ */
+public class ChainNodeTests {
+  /**
+   * The number of blocks to mine before other nodes connect.
+   */
+  static int BLOCKS = 3;
+
+  /**
+   * How long to wait for nodes to sync, in milliseconds.
+   */
+  static long TIMEOUT = 10000;
+
+  /**
+   * Waits until the chain reaches the given size or TIMEOUT passes.
+   */
+  static void awaitSize(BlockChain chain, int size) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (chain.getSize() < size && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    } // while
+  } // awaitSize(BlockChain, int)
+
+  /**
+   * Waits until the chain's tip has the given hash or TIMEOUT passes.
+   */
+  static void awaitHash(BlockChain chain, Hash hash) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (!chain.getHash().equals(hash) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    } // while
+  } // awaitHash(BlockChain, Hash)
+
+  /**
+   * Reads frames from a node until one of the given type arrives, and returns its payload.
+   */
+  static ByteBuffer awaitFrame(DataInputStream in, byte type) throws Exception {
+    while (true) {
+      byte[] frame = new byte[in.readInt()];
+      in.readFully(frame);
+      if (frame[0] == type) {
+        return ByteBuffer.wrap(frame, 1, frame.length - 1);
+      } // if
+    } // while
+  } // awaitFrame(DataInputStream, byte)
+
+  /**
+   * Sends a frame to a node.
+   */
+  static void sendFrame(DataOutputStream out, ByteBuffer msg) throws Exception {
+    out.write(msg.array());
+    out.flush();
+  } // sendFrame(DataOutputStream, ByteBuffer)
+
+  /**
+   * Sends a BLOCKS frame holding one block to a node.
+   */
+  static void sendBlock(DataOutputStream out, int num, int amount, long nonce) throws Exception {
+    ByteBuffer msg = ChainNode.frame(ChainNode.BLOCKS, Integer.BYTES + ChainNode.BLOCK_BYTES);
+    msg.putInt(1).putInt(num).putInt(amount).putLong(nonce);
+    sendFrame(out, msg);
+  } // sendBlock(DataOutputStream, int, int, long)
+
+  /**
+   * Connects a line of three nodes and checks that blocks mined at either end reach the others.
+   */
+  @Test
+  public void syncThreeNodesTest() throws Exception {
+    BlockChain chainA = new BlockChain(300);
+    for (int i = 0; i < BLOCKS; i++) {
+      chainA.append(chainA.mine(-10));
+    } // for
+    BlockChain chainB = new BlockChain(300);
+    BlockChain chainC = new BlockChain(300);
+
+    try (ChainNode nodeA = new ChainNode(chainA, 0);
+        ChainNode nodeB = new ChainNode(chainB, 0);
+        ChainNode nodeC = new ChainNode(chainC, 0)) {
+      nodeA.start();
+      nodeB.start();
+      nodeC.start();
+      nodeB.connect(new InetSocketAddress("127.0.0.1", nodeA.getPort()));
+      nodeC.connect(new InetSocketAddress("127.0.0.1", nodeB.getPort()));
+
+      // C learns A's blocks through B.
+      awaitSize(chainC, BLOCKS + 1);
+      assertEquals(BLOCKS + 1, chainB.getSize());
+      assertEquals(BLOCKS + 1, chainC.getSize());
+      assertEquals(chainA.getHash(), chainC.getHash());
+      assertTrue(chainC.isValidBlockChain());
+
+      // A learns a block mined by C.
+      chainC.append(chainC.mine(5));
+      nodeC.announceTip();
+      awaitSize(chainA, BLOCKS + 2);
+      assertEquals(chainC.getHash(), chainA.getHash());
+      assertTrue(chainA.isValidBlockChain());
+    } // try
+  } // syncThreeNodesTest()
+
+  /**
+   * Checks that a node on a pruned chain brings up to date a peer whose tip it still holds, but
+   * not a fresh peer, whose tip was folded away.
+   */
+  @Test
+  public void prunedSyncTest() throws Exception {
+    BlockChain pruned = new BlockChain(300, 10, 1);
+    BlockChain behind = new BlockChain(300, 0, 1);
+    for (int i = 0; i < 40; i++) {
+      Block blk = pruned.mine(-1);
+      pruned.append(blk);
+      if (i < 35) {
+        behind.append(blk);
+      } // if
+    } // for
+    assertEquals(30, pruned.getSnapshot().getHeight());
+    BlockChain fresh = new BlockChain(300, 0, 1);
+
+    try (ChainNode nodeA = new ChainNode(pruned, 0);
+        ChainNode nodeB = new ChainNode(behind, 0);
+        ChainNode nodeC = new ChainNode(fresh, 0)) {
+      nodeA.start();
+      nodeB.start();
+      nodeC.start();
+      nodeB.connect(new InetSocketAddress("127.0.0.1", nodeA.getPort()));
+      nodeC.connect(new InetSocketAddress("127.0.0.1", nodeA.getPort()));
+
+      // B's tip, block 35, is still kept, so B catches up.
+      awaitSize(behind, 41);
+      assertEquals(pruned.getHash(), behind.getHash());
+      assertTrue(behind.isValidBlockChain());
+
+      // C's tip is the first block, which was folded away, so C gets nothing.
+      Thread.sleep(500);
+      assertEquals(2, nodeA.getPeerCount());
+      assertEquals(1, fresh.getSize());
+    } // try
+  } // prunedSyncTest()
+
+  /**
+   * Syncs a chain long enough that catching up takes several pipelined GET_RANGE requests after
+   * the first GET_AFTER.
+   */
+  @Test
+  public void syncLongChainTest() throws Exception {
+    int blocks = ChainNode.BATCH_SIZE * ChainNode.PIPELINE_DEPTH + ChainNode.BATCH_SIZE / 2;
+    BlockChain chainA = new BlockChain(blocks, 0, 1);
+    for (int i = 0; i < blocks; i++) {
+      chainA.append(chainA.mine(-1));
+    } // for
+    BlockChain chainB = new BlockChain(blocks, 0, 1);
+
+    try (ChainNode nodeA = new ChainNode(chainA, 0);
+        ChainNode nodeB = new ChainNode(chainB, 0)) {
+      nodeA.start();
+      nodeB.start();
+      nodeB.connect(new InetSocketAddress("127.0.0.1", nodeA.getPort()));
+
+      awaitSize(chainB, blocks + 1);
+      assertEquals(blocks + 1, chainB.getSize());
+      assertEquals(chainA.getHash(), chainB.getHash());
+      assertEquals(0, chainB.getBalance());
+      assertTrue(chainB.isValidBlockChain());
+    } // try
+  } // syncLongChainTest()
+
+  /**
+   * Syncs a chain of hundreds of thousands of blocks at difficulty 0 within TIMEOUT, which needs
+   * each range request to cost no more than the blocks it returns.
+   */
+  @Test
+  public void syncManyBlocksTest() throws Exception {
+    int blocks = 400000;
+    BlockChain chainA = new BlockChain(blocks, 0, 0);
+    for (int i = 0; i < blocks; i++) {
+      chainA.append(chainA.mine(-1));
+    } // for
+    BlockChain chainB = new BlockChain(blocks, 0, 0);
+
+    try (ChainNode nodeA = new ChainNode(chainA, 0);
+        ChainNode nodeB = new ChainNode(chainB, 0)) {
+      nodeA.start();
+      nodeB.start();
+      nodeB.connect(new InetSocketAddress("127.0.0.1", nodeA.getPort()));
+
+      awaitSize(chainB, blocks + 1);
+      assertEquals(blocks + 1, chainB.getSize());
+      assertEquals(chainA.getHash(), chainB.getHash());
+    } // try
+  } // syncManyBlocksTest()
+
+  /**
+   * Connects two nodes on different forks of the same first block, and checks that the node on
+   * the shorter fork reorganizes onto the longer one; then has each node append a block at the
+   * same height and checks that they converge again once one of them grows.
+   */
+  @Test
+  public void forkTest() throws Exception {
+    BlockChain chainA = new BlockChain(300, 0, 1);
+    BlockChain chainB = new BlockChain(300, 0, 1);
+    for (int i = 0; i < 5; i++) {
+      chainA.append(chainA.mine(-1));
+    } // for
+    for (int i = 0; i < 8; i++) {
+      chainB.append(chainB.mine(-2));
+    } // for
+
+    try (ChainNode nodeA = new ChainNode(chainA, 0);
+        ChainNode nodeB = new ChainNode(chainB, 0)) {
+      nodeA.start();
+      nodeB.start();
+      nodeA.connect(new InetSocketAddress("127.0.0.1", nodeB.getPort()));
+
+      // A drops its five blocks for B's eight.
+      awaitHash(chainA, chainB.getHash());
+      assertEquals(9, chainA.getSize());
+      assertEquals(chainB.getHash(), chainA.getHash());
+      assertEquals(284, chainA.getBalance());
+      assertTrue(chainA.isValidBlockChain());
+
+      // Both append at height 9, diverging; B then grows and A follows it.
+      synchronized (chainA) {
+        chainA.append(chainA.mine(-3));
+      } // synchronized
+      synchronized (chainB) {
+        chainB.append(chainB.mine(-4));
+        chainB.append(chainB.mine(-5));
+      } // synchronized
+      nodeA.announceTip();
+      nodeB.announceTip();
+      awaitHash(chainA, chainB.getHash());
+      assertEquals(11, chainA.getSize());
+      assertEquals(chainB.getHash(), chainA.getHash());
+      assertEquals(275, chainA.getBalance());
+      assertTrue(chainA.isValidBlockChain());
+    } // try
+  } // forkTest()
+
+  /**
+   * Checks that a node finds a common ancestor far below both tips, and collects a fork longer
+   * than one batch before reorganizing onto it.
+   */
+  @Test
+  public void deepForkTest() throws Exception {
+    BlockChain chainA = new BlockChain(1000, 0, 1);
+    BlockChain chainB = new BlockChain(1000, 0, 1);
+    for (int i = 0; i < 200; i++) {
+      Block blk = chainA.mine(-1);
+      chainA.append(blk);
+      chainB.append(blk);
+    } // for
+    for (int i = 0; i < 100; i++) {
+      chainA.append(chainA.mine(1));
+    } // for
+    for (int i = 0; i < 3 * ChainNode.BATCH_SIZE; i++) {
+      chainB.append(chainB.mine(-1));
+    } // for
+
+    try (ChainNode nodeA = new ChainNode(chainA, 0);
+        ChainNode nodeB = new ChainNode(chainB, 0)) {
+      nodeA.start();
+      nodeB.start();
+      nodeA.connect(new InetSocketAddress("127.0.0.1", nodeB.getPort()));
+
+      awaitHash(chainA, chainB.getHash());
+      assertEquals(chainB.getSize(), chainA.getSize());
+      assertEquals(chainB.getHash(), chainA.getHash());
+      assertEquals(chainB.getBalance(), chainA.getBalance());
+      assertTrue(chainA.isValidBlockChain());
+    } // try
+  } // deepForkTest()
+
+  /**
+   * Serves a node a block with a bad nonce and a block that overdraws the balance from a
+   * hand-written peer, and checks that both are rejected and that a good block sent after the
+   * next tip is accepted.
+   */
+  @Test
+  public void invalidBlockTest() throws Exception {
+    BlockChain chain = new BlockChain(300, 0, 2);
+    Hash first = chain.getHash();
+    long badNonce = 0;
+    while (new Block(1, -5, first, badNonce).getHash().isValid(2)) {
+      badNonce++;
+    } // while
+    Block good = Block.mine(1, -5, first, 2);
+    Block overdrawn = Block.mine(1, 5000, first, 2);
+    byte[] hashBytes = good.getHash().getData();
+
+    try (ChainNode node = new ChainNode(chain, 0);
+        Socket socket = new Socket("127.0.0.1", node.getPort())) {
+      node.start();
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+      // Announce a longer chain and answer the node's request with a bad block.
+      ByteBuffer tip = ChainNode.frame(ChainNode.TIP, Integer.BYTES + hashBytes.length);
+      tip.putInt(2).put(hashBytes);
+      sendFrame(out, tip);
+      ByteBuffer request = awaitFrame(in, ChainNode.GET_AFTER);
+      assertEquals(1, request.getInt());
+      sendBlock(out, 1, -5, badNonce);
+      Thread.sleep(200);
+      assertEquals(1, chain.getSize());
+
+      // A block with a valid hash that would leave a balance above the initial amount.
+      sendFrame(out, tip);
+      awaitFrame(in, ChainNode.GET_AFTER);
+      sendBlock(out, 1, 5000, overdrawn.getNonce());
+      Thread.sleep(200);
+      assertEquals(1, chain.getSize());
+      assertTrue(chain.isValidBlockChain());
+
+      // Announce again and answer with the good block.
+      sendFrame(out, tip);
+      awaitFrame(in, ChainNode.GET_AFTER);
+      sendBlock(out, 1, -5, good.getNonce());
+      awaitSize(chain, 2);
+      assertEquals(good.getHash(), chain.getHash());
+      assertTrue(chain.isValidBlockChain());
+    } // try
+  } // invalidBlockTest()
+
+} // class ChainNodeTests
@@ -17,6 +17,11 @@ public class Hash {
    */
   byte[] data;
 
+  /**
+   * The number of leading zero bytes a valid hash must have, unless a difficulty is given.
+   */
+  static final int DIFFICULTY = 3;
+
   // +--------------+
   // | Constructor |
   // +-------------+--------------------------------------------------------------------------------
@@ -47,13 +52,23 @@ public class Hash {
    * @return boolean
    */
   public boolean isValid() {
-    // Check that hash length is not less than 3.
-    if (this.data.length < 3) {
+    return isValid(DIFFICULTY);
+  } // isValid()
+
+  /**
+   * Returns true iff the first zeroes indices of this hash contain zeroes.
+   * 
+   * @param zeroes
+   * @return boolean
+   */
+  public boolean isValid(int zeroes) {
+    // Check that hash length is not less than the number of zeroes.
+    if (this.data.length < zeroes) {
       return false;
     } // if
 
-    // Check each of the first 3 indices in hash are 0.
-    for (int i = 0; i < 3; i++) {
+    // Check each of the first indices in hash are 0.
+    for (int i = 0; i < zeroes; i++) {
       if (Byte.toUnsignedInt(this.data[i]) != 0) {
         return false;
       } // if
@@ -61,7 +76,7 @@ public class Hash {
 
     // If so, return true.
     return true;
-  } // getData()
+  } // isValid(int)
 
   /**
    * Returns the string representation of the hash as a string 
@@ -97,5 +112,13 @@ public class Hash {
     // Otherwise, return false.
     return false;
   } // equals(Object)
+
+  /**
+   * Returns a hash code consistent with equals, so that a Hash can be used as a key.
+   * @return int
+   */
+  public int hashCode() {
+    return Arrays.hashCode(this.data);
+  } // hashCode()
   
 } // class Hash
@@ -27,6 +27,14 @@ public class HashTests {
     assertFalse((new Hash(data5)).isValid());
   } // isValidTest()
 
+  @Test
+  public void isValidDifficultyTest() {
+    assertTrue((new Hash(data2)).isValid(2));
+    assertFalse((new Hash(data2)).isValid(3));
+    assertTrue((new Hash(data4)).isValid(0));
+    assertFalse((new Hash(data5)).isValid(3));
+  } // isValidDifficultyTest()
+
   @Test
   public void equalsTest() {
     Hash testHash1 = new Hash(data1);
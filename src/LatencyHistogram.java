@@ -0,0 +1,158 @@
+/**
+ * A histogram of latencies in nanoseconds, recorded in the manner of HdrHistogram.
+ *
+ * Values below 128 get a bucket each; above that, every power of two is split into 64 buckets,
+ * so any recorded value is reported within about 1.6% of its true value, however large. The
+ * histogram is not thread-safe: give each thread its own and combine them with add().
+ *
+ * @author Tim Yu
+ * @author Nye Tenerelli
+ * @author Keely Miyamoto
+ */
+public class LatencyHistogram {
+  // +-----------+
+  // | Constants |
+  // +-----------+---------------------------------------------------------------------------------
+
+  /**
+   * Values below this are counted exactly.
+   */
+  static final int LINEAR = 128;
+
+  /**
+   * The number of buckets each higher power of two is split into.
+   */
+  static final int SUB_BUCKETS = 64;
+
+  /**
+   * The number of buckets needed to cover every non-negative long.
+   */
+  static final int BUCKETS = LINEAR + (Long.SIZE - 8) * SUB_BUCKETS;
+
+  // +--------+
+  // | Fields |
+  // +--------+------------------------------------------------------------------------------------
+
+  /**
+   * The number of values recorded in each bucket.
+   */
+  private long[] counts = new long[BUCKETS];
+
+  /**
+   * The number of values recorded.
+   */
+  private long total = 0;
+
+  /**
+   * The largest value recorded.
+   */
+  private long max = 0;
+
+  /**
+   * The sum of every value recorded.
+   */
+  private long sum = 0;
+
+  // +----------------+
+  // | Public methods |
+  // +----------------+----------------------------------------------------------------------------
+
+  /**
+   * Records one value. Negative values are recorded as 0.
+   * @param value
+   */
+  public void record(long value) {
+    long v = Math.max(0, value);
+    this.counts[index(v)]++;
+    this.total++;
+    this.sum += v;
+    this.max = Math.max(this.max, v);
+  } // record(long)
+
+  /**
+   * Adds every value recorded by another histogram to this one.
+   * @param other
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      this.counts[i] += other.counts[i];
+    } // for
+    this.total += other.total;
+    this.sum += other.sum;
+    this.max = Math.max(this.max, other.max);
+  } // add(LatencyHistogram)
+
+  /**
+   * Returns the number of values recorded.
+   * @return long
+   */
+  public long getCount() {
+    return this.total;
+  } // getCount()
+
+  /**
+   * Returns the largest value recorded, or 0 if none were.
+   * @return long
+   */
+  public long getMax() {
+    return this.max;
+  } // getMax()
+
+  /**
+   * Returns the mean of the values recorded, or 0 if none were.
+   * @return double
+   */
+  public double getMean() {
+    return this.total == 0 ? 0 : (double) this.sum / this.total;
+  } // getMean()
+
+  /**
+   * Returns the value below or at which the given percentage of recorded values fall, or 0 if
+   * none were recorded.
+   * @param percentile - between 0 and 100
+   * @return long
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (this.total == 0) {
+      return 0;
+    } // if
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += this.counts[i];
+      if (seen >= rank) {
+        return Math.min(highest(i), this.max);
+      } // if
+    } // for
+    return this.max;
+  } // getValueAtPercentile(double)
+
+  // +----------------+
+  // | Helper methods |
+  // +----------------+----------------------------------------------------------------------------
+
+  /**
+   * Returns the bucket of a non-negative value.
+   */
+  static int index(long value) {
+    if (value < LINEAR) {
+      return (int) value;
+    } // if
+    // Shift so that the value's top bits fall in [SUB_BUCKETS, 2 * SUB_BUCKETS).
+    int shift = (63 - Long.numberOfLeadingZeros(value)) - 6;
+    return LINEAR + (shift - 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+  } // index(long)
+
+  /**
+   * Returns the largest value that falls in the given bucket.
+   */
+  static long highest(int index) {
+    if (index < LINEAR) {
+      return index;
+    } // if
+    int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+    long top = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((top + 1) << shift) - 1;
+  } // highest(int)
+
+} // class LatencyHistogram
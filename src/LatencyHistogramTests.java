@@ -0,0 +1,68 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A file to test methods in the LatencyHistogram class.
+ *
+ * @author Keely Miyamoto
+ * @author Nye Tenerelli
+ * @author Tim Yu
+ */
+public class LatencyHistogramTests {
+  /**
+   * Checks that every value falls in a bucket whose range contains it.
+   */
+  @Test
+  public void bucketTest() {
+    long[] values = {0, 1, 127, 128, 129, 255, 256, 1000, 123456789, Long.MAX_VALUE};
+    for (long value : values) {
+      int index = LatencyHistogram.index(value);
+      assertTrue(index < LatencyHistogram.BUCKETS);
+      assertTrue(LatencyHistogram.highest(index) >= value);
+      assertTrue(index == 0 || LatencyHistogram.highest(index - 1) < value);
+    } // for
+  } // bucketTest()
+
+  /**
+   * Records 1 through 10000 and checks the percentiles against the exact values.
+   */
+  @Test
+  public void percentileTest() {
+    LatencyHistogram h = new LatencyHistogram();
+    for (int i = 1; i <= 10000; i++) {
+      h.record(i);
+    } // for
+    assertEquals(10000, h.getCount());
+    assertEquals(10000, h.getMax());
+    assertEquals(5000.5, h.getMean());
+    assertWithin(5000, h.getValueAtPercentile(50));
+    assertWithin(9900, h.getValueAtPercentile(99));
+    assertWithin(9990, h.getValueAtPercentile(99.9));
+    assertEquals(10000, h.getValueAtPercentile(100));
+  } // percentileTest()
+
+  /**
+   * Checks that adding histograms combines their counts.
+   */
+  @Test
+  public void addTest() {
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    a.record(10);
+    b.record(20);
+    b.record(30);
+    a.add(b);
+    assertEquals(3, a.getCount());
+    assertEquals(30, a.getMax());
+    assertEquals(20, a.getValueAtPercentile(50));
+  } // addTest()
+
+  /**
+   * Checks that a reported value is within 2% above the exact value.
+   */
+  static void assertWithin(long expected, long actual) {
+    assertTrue(actual >= expected && actual <= expected * 1.02, expected + " vs " + actual);
+  } // assertWithin(long, long)
+
+} // class LatencyHistogramTests
@@ -0,0 +1,435 @@
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a BlockChain with a mix of operations for a set time and reports throughput and latency
+ * percentiles for each operation, along with heap and GC statistics.
+ *
+ * Options are given as name=value:
+ *    duration: seconds to run (default 10)
+ *    threads: number of threads issuing operations (default 4)
+ *    rate: total operations per second, or 0 for as fast as possible (default 0)
+ *    mix: weight of each operation, e.g. mine:30,append:30,remove:10,check:15,report:15
+ *    difficulty: leading zero bytes of a valid hash on the generated chain (default 1)
+ *    prune: prune depth of the chain, or 0 to keep every block (default 1000)
+ *    format: csv or json (default csv)
+ *    out: file to write results to (default standard output)
+ *
+ * When a rate is set, each operation is timed from when it was due rather than from when it
+ * started, so a stall is charged to every operation that waited behind it. In either mode an
+ * append is timed including the mining of its block, so runs with and without a rate can be
+ * compared. Appended amounts keep the balance within [0, initial], so every check walks a valid
+ * chain; a check that finds it invalid is an error.
+ *
+ * Numbers are always written with Locale.ROOT, whatever the default locale.
+ *
+ * GC counts and times cover only the run. Heap use is sampled every HEAP_SAMPLE_MILLIS during
+ * the run and reported as its peak and average.
+ *
+ * @author Tim Yu
+ * @author Nye Tenerelli
+ * @author Keely Miyamoto
+ */
+public class LoadGenerator {
+  // +-----------+
+  // | Constants |
+  // +-----------+---------------------------------------------------------------------------------
+
+  /**
+   * The operations, in the order they are reported.
+   */
+  static final String[] OPS = {"mine", "append", "remove", "check", "report"};
+
+  /**
+   * The largest amount transferred by a generated block.
+   */
+  static final int MAX_AMOUNT = 10;
+
+  /**
+   * Alexis' initial amount on the generated chain.
+   */
+  static final int INITIAL = MAX_AMOUNT * 1000;
+
+  /**
+   * How often heap use is sampled during a run, in milliseconds.
+   */
+  static final long HEAP_SAMPLE_MILLIS = 50;
+
+  // +--------+
+  // | Fields |
+  // +--------+------------------------------------------------------------------------------------
+
+  int duration = 10;
+  int threads = 4;
+  int rate = 0;
+  int[] mix = {30, 30, 10, 15, 15};
+  int difficulty = 1;
+  int prune = 1000;
+  String format = "csv";
+  String out = null;
+
+  /**
+   * Latencies of each operation, combined from every thread after the run.
+   */
+  LatencyHistogram[] latencies = new LatencyHistogram[OPS.length];
+
+  /**
+   * Failed operations (appends that lost a race for the tip, checks that found the chain
+   * invalid), by operation.
+   */
+  long[] errors = new long[OPS.length];
+
+  /**
+   * How long the run actually took, in nanoseconds.
+   */
+  long elapsed;
+
+  /**
+   * The size of the chain after the run.
+   */
+  int finalSize;
+
+  /**
+   * The number and total time, in milliseconds, of garbage collections during the run.
+   */
+  long gcCount;
+  long gcTime;
+
+  /**
+   * The peak and average heap use sampled during the run, and the largest heap allowed, in bytes.
+   */
+  long heapPeak;
+  long heapAverage;
+  long heapMax;
+
+  // +------+
+  // | Main |
+  // +------+--------------------------------------------------------------------------------------
+
+  /**
+   * Runs a load test with the given options and writes its results.
+   * @param args - name=value options, as described above.
+   */
+  public static void main(String[] args) throws Exception {
+    PrintWriter redpen = new PrintWriter(System.err, true);
+    LoadGenerator gen = new LoadGenerator();
+    try {
+      gen.parse(args);
+    } catch (IllegalArgumentException e) {
+      redpen.println(e.getMessage());
+      System.exit(1);
+    } // try/catch
+
+    gen.run();
+
+    Writer writer = gen.out == null ? new PrintWriter(System.out) : new FileWriter(gen.out);
+    try (PrintWriter pen = new PrintWriter(writer)) {
+      if (gen.format.equals("json")) {
+        gen.writeJson(pen);
+      } else {
+        gen.writeCsv(pen);
+      } // if
+    } // try
+  } // main(String[])
+
+  // +----------------+
+  // | Public methods |
+  // +----------------+----------------------------------------------------------------------------
+
+  /**
+   * Reads name=value options, throwing an IllegalArgumentException for any that are invalid.
+   * @param args
+   */
+  public void parse(String[] args) {
+    for (String arg : args) {
+      String[] pair = arg.split("=", 2);
+      if (pair.length != 2) {
+        throw new IllegalArgumentException("Expected name=value: " + arg);
+      } // if
+      try {
+        switch (pair[0]) {
+          case "duration" :
+            this.duration = Integer.parseInt(pair[1]);
+            break;
+          case "threads" :
+            this.threads = Integer.parseInt(pair[1]);
+            break;
+          case "rate" :
+            this.rate = Integer.parseInt(pair[1]);
+            break;
+          case "mix" :
+            this.mix = parseMix(pair[1]);
+            break;
+          case "difficulty" :
+            this.difficulty = Integer.parseInt(pair[1]);
+            break;
+          case "prune" :
+            this.prune = Integer.parseInt(pair[1]);
+            break;
+          case "format" :
+            this.format = pair[1];
+            break;
+          case "out" :
+            this.out = pair[1];
+            break;
+          default :
+            throw new IllegalArgumentException("Unknown option: " + pair[0]);
+        } // switch
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Not a number: " + arg);
+      } // try/catch
+    } // for
+    if (this.duration <= 0 || this.threads <= 0) {
+      throw new IllegalArgumentException("Duration and threads must be positive.");
+    } // if
+    if (this.rate < 0 || this.difficulty < 0 || this.prune < 0) {
+      throw new IllegalArgumentException("Rate, difficulty, and prune must not be negative.");
+    } // if
+    if (!this.format.equals("csv") && !this.format.equals("json")) {
+      throw new IllegalArgumentException("Format must be csv or json.");
+    } // if
+  } // parse(String[])
+
+  /**
+   * Runs the load test, filling in latencies, errors, elapsed, and finalSize.
+   * @throws Exception
+   */
+  public void run() throws Exception {
+    BlockChain chain = new BlockChain(INITIAL, this.prune, this.difficulty);
+    LatencyHistogram[][] perThread = new LatencyHistogram[this.threads][OPS.length];
+    long[][] perThreadErrors = new long[this.threads][OPS.length];
+    Thread[] workers = new Thread[this.threads];
+    long[] gcBefore = gcStats();
+
+    long start = System.nanoTime();
+    long end = start + this.duration * 1_000_000_000L;
+    for (int t = 0; t < this.threads; t++) {
+      for (int op = 0; op < OPS.length; op++) {
+        perThread[t][op] = new LatencyHistogram();
+      } // for
+      int id = t;
+      workers[t] = new Thread(() -> this.work(chain, id, start, end, perThread[id],
+          perThreadErrors[id]), "LoadGenerator-" + t);
+      workers[t].start();
+    } // for
+
+    // Sample heap use until every worker is done.
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    long samples = 0;
+    long heapTotal = 0;
+    this.heapPeak = 0;
+    for (Thread worker : workers) {
+      while (worker.isAlive()) {
+        long used = memory.getHeapMemoryUsage().getUsed();
+        this.heapPeak = Math.max(this.heapPeak, used);
+        heapTotal += used;
+        samples++;
+        worker.join(HEAP_SAMPLE_MILLIS);
+      } // while
+    } // for
+    this.elapsed = System.nanoTime() - start;
+    this.finalSize = chain.getSize();
+    this.heapAverage = samples == 0 ? 0 : heapTotal / samples;
+    this.heapMax = memory.getHeapMemoryUsage().getMax();
+    long[] gcAfter = gcStats();
+    this.gcCount = gcAfter[0] - gcBefore[0];
+    this.gcTime = gcAfter[1] - gcBefore[1];
+
+    // Combine the results of every thread.
+    for (int op = 0; op < OPS.length; op++) {
+      this.latencies[op] = new LatencyHistogram();
+      for (int t = 0; t < this.threads; t++) {
+        this.latencies[op].add(perThread[t][op]);
+        this.errors[op] += perThreadErrors[t][op];
+      } // for
+    } // for
+  } // run()
+
+  /**
+   * Writes the results as CSV, one row per operation. Heap and GC columns repeat on every row so
+   * that each row can be compared on its own.
+   * @param pen
+   */
+  public void writeCsv(PrintWriter pen) {
+    pen.println("op,count,errors,throughput,mean_us,p50_us,p99_us,p999_us,max_us,"
+        + "chain_size,heap_peak,heap_avg,heap_max,gc_count,gc_time_ms");
+    for (int op = 0; op < OPS.length; op++) {
+      LatencyHistogram h = this.latencies[op];
+      pen.printf(Locale.ROOT, "%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%d,%d,%d,%d,%d,%d%n",
+          OPS[op], h.getCount(), this.errors[op], throughput(h),
+          h.getMean() / 1000, micros(h, 50), micros(h, 99), micros(h, 99.9), h.getMax() / 1000.0,
+          this.finalSize, this.heapPeak, this.heapAverage, this.heapMax, this.gcCount, this.gcTime);
+    } // for
+  } // writeCsv(PrintWriter)
+
+  /**
+   * Writes the results as a JSON object.
+   * @param pen
+   */
+  public void writeJson(PrintWriter pen) {
+    pen.println("{");
+    pen.printf(Locale.ROOT, "  \"duration_s\": %.3f,%n", this.elapsed / 1e9);
+    pen.printf(Locale.ROOT, "  \"threads\": %d,%n", this.threads);
+    pen.printf(Locale.ROOT, "  \"rate\": %d,%n", this.rate);
+    pen.printf(Locale.ROOT, "  \"difficulty\": %d,%n", this.difficulty);
+    pen.printf(Locale.ROOT, "  \"chain_size\": %d,%n", this.finalSize);
+    pen.printf(Locale.ROOT, "  \"heap\": {\"peak\": %d, \"avg\": %d, \"max\": %d},%n",
+        this.heapPeak, this.heapAverage, this.heapMax);
+    pen.printf(Locale.ROOT, "  \"gc\": {\"count\": %d, \"time_ms\": %d},%n",
+        this.gcCount, this.gcTime);
+    pen.println("  \"ops\": {");
+    for (int op = 0; op < OPS.length; op++) {
+      LatencyHistogram h = this.latencies[op];
+      pen.printf(Locale.ROOT, "    \"%s\": {\"count\": %d, \"errors\": %d, \"throughput\": %.1f, "
+          + "\"mean_us\": %.1f, \"p50_us\": %.1f, \"p99_us\": %.1f, \"p999_us\": %.1f, "
+          + "\"max_us\": %.1f}%s%n",
+          OPS[op], h.getCount(), this.errors[op], throughput(h),
+          h.getMean() / 1000, micros(h, 50), micros(h, 99), micros(h, 99.9), h.getMax() / 1000.0,
+          op == OPS.length - 1 ? "" : ",");
+    } // for
+    pen.println("  }");
+    pen.println("}");
+  } // writeJson(PrintWriter)
+
+  // +----------------+
+  // | Helper methods |
+  // +----------------+----------------------------------------------------------------------------
+
+  /**
+   * Parses a mix such as mine:30,append:30 into a weight per operation. Operations that are not
+   * named get no weight.
+   */
+  static int[] parseMix(String text) {
+    int[] weights = new int[OPS.length];
+    int total = 0;
+    for (String part : text.split(",")) {
+      String[] pair = part.split(":");
+      int op = Arrays.asList(OPS).indexOf(pair[0]);
+      if (pair.length != 2 || op < 0) {
+        throw new IllegalArgumentException("Bad mix entry: " + part);
+      } // if
+      weights[op] = Integer.parseInt(pair[1]);
+      if (weights[op] < 0) {
+        throw new IllegalArgumentException("Bad mix entry: " + part);
+      } // if
+      total += weights[op];
+    } // for
+    if (total == 0) {
+      throw new IllegalArgumentException("Mix must have some weight.");
+    } // if
+    return weights;
+  } // parseMix(String)
+
+  /**
+   * The loop run by each thread: pick an operation by weight, wait until it is due, run it,
+   * and record how long it took.
+   */
+  void work(BlockChain chain, int id, long start, long end, LatencyHistogram[] latency,
+      long[] error) {
+    Random rand = new Random(id);
+    PrintWriter sink = new PrintWriter(Writer.nullWriter());
+    int total = 0;
+    for (int weight : this.mix) {
+      total += weight;
+    } // for
+    // Each thread issues an equal share of the rate.
+    long interval = this.rate == 0 ? 0 : 1_000_000_000L * this.threads / this.rate;
+    long due = start;
+
+    while (true) {
+      if (interval > 0) {
+        // Stop once the run is over, even if this thread has fallen behind its rate.
+        due += interval;
+        if (due >= end || System.nanoTime() >= end) {
+          return;
+        } // if
+        LockSupport.parkNanos(due - System.nanoTime());
+      } else {
+        due = System.nanoTime();
+        if (due >= end) {
+          return;
+        } // if
+      } // if
+
+      // Pick an operation.
+      int pick = rand.nextInt(total);
+      int op = 0;
+      while (pick >= this.mix[op]) {
+        pick -= this.mix[op];
+        op++;
+      } // while
+      int amount = rand.nextInt(2 * MAX_AMOUNT + 1) - MAX_AMOUNT;
+
+      try {
+        switch (OPS[op]) {
+          case "mine" :
+            chain.mine(amount);
+            break;
+          case "append" : {
+            // Read the tip and balance together, and pick an amount that keeps the balance legal.
+            int size;
+            Hash prevHash;
+            synchronized (chain) {
+              size = chain.getSize();
+              prevHash = chain.getHash();
+              int balance = chain.getBalance();
+              amount = Math.max(-balance, Math.min(INITIAL - balance, amount));
+            } // synchronized
+            chain.append(Block.mine(size, amount, prevHash, this.difficulty));
+            break;
+          }
+          case "remove" :
+            chain.removeLast();
+            break;
+          case "check" :
+            if (!chain.isValidBlockChain()) {
+              error[op]++;
+            } // if
+            break;
+          default :
+            chain.printBalances(sink);
+        } // switch
+      } catch (IllegalArgumentException | NoSuchAlgorithmException e) {
+        // Another thread moved the tip while this block was being mined.
+        error[op]++;
+      } // try/catch
+      latency[op].record(System.nanoTime() - due);
+    } // while
+  } // work(BlockChain, int, long, long, LatencyHistogram[], long[])
+
+  /**
+   * Returns the operations per second recorded by the histogram.
+   */
+  double throughput(LatencyHistogram h) {
+    return h.getCount() / (this.elapsed / 1e9);
+  } // throughput(LatencyHistogram)
+
+  /**
+   * Returns a percentile of the histogram in microseconds.
+   */
+  static double micros(LatencyHistogram h, double percentile) {
+    return h.getValueAtPercentile(percentile) / 1000.0;
+  } // micros(LatencyHistogram, double)
+
+  /**
+   * Returns the total count and time, in milliseconds, of every garbage collector.
+   */
+  static long[] gcStats() {
+    long[] stats = new long[2];
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      stats[0] += Math.max(0, bean.getCollectionCount());
+      stats[1] += Math.max(0, bean.getCollectionTime());
+    } // for
+    return stats;
+  } // gcStats()
+
+} // class LoadGenerator
@@ -0,0 +1,110 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A file to test methods in the LoadGenerator class.
+ *
+ * @author Keely Miyamoto
+ * @author Nye Tenerelli
+ * @author Tim Yu
+ */
+public class LoadGeneratorTests {
+  /**
+   * Returns the message of the IllegalArgumentException thrown when parsing the given options.
+   */
+  static String parseError(String... args) {
+    return assertThrows(IllegalArgumentException.class, () -> new LoadGenerator().parse(args))
+        .getMessage();
+  } // parseError(String...)
+
+  /**
+   * Checks that mixes are parsed into weights, and that bad entries are rejected.
+   */
+  @Test
+  public void parseMixTest() {
+    assertEquals("[0, 50, 0, 50, 0]",
+        Arrays.toString(LoadGenerator.parseMix("append:50,check:50")));
+    assertEquals("[1, 2, 3, 4, 5]",
+        Arrays.toString(LoadGenerator.parseMix("report:5,check:4,remove:3,append:2,mine:1")));
+    assertThrows(IllegalArgumentException.class, () -> LoadGenerator.parseMix("steal:5"));
+    assertThrows(IllegalArgumentException.class, () -> LoadGenerator.parseMix("mine"));
+    assertThrows(IllegalArgumentException.class, () -> LoadGenerator.parseMix("mine:-1"));
+    assertThrows(IllegalArgumentException.class, () -> LoadGenerator.parseMix("mine:x"));
+    assertThrows(IllegalArgumentException.class, () -> LoadGenerator.parseMix("mine:0,check:0"));
+  } // parseMixTest()
+
+  /**
+   * Checks that invalid options are rejected with a message saying why.
+   */
+  @Test
+  public void parseErrorsTest() {
+    assertTrue(parseError("duration").startsWith("Expected name=value"));
+    assertTrue(parseError("speed=3").startsWith("Unknown option"));
+    assertTrue(parseError("threads=four").startsWith("Not a number"));
+    assertTrue(parseError("mix=mine:x").startsWith("Not a number"));
+    assertTrue(parseError("mix=steal:1").startsWith("Bad mix entry"));
+    assertEquals("Duration and threads must be positive.", parseError("duration=0"));
+    assertEquals("Duration and threads must be positive.", parseError("threads=0"));
+    assertEquals("Rate, difficulty, and prune must not be negative.", parseError("rate=-1"));
+    assertEquals("Format must be csv or json.", parseError("format=xml"));
+
+    LoadGenerator gen = new LoadGenerator();
+    gen.parse(new String[] {"duration=2", "threads=3", "rate=100", "format=json"});
+    assertEquals(2, gen.duration);
+    assertEquals(3, gen.threads);
+    assertEquals(100, gen.rate);
+    assertEquals("json", gen.format);
+  } // parseErrorsTest()
+
+  /**
+   * Runs for a second and checks the shape of the CSV and JSON results, written under a locale
+   * whose decimal separator is a comma.
+   */
+  @Test
+  public void runTest() throws Exception {
+    LoadGenerator gen = new LoadGenerator();
+    gen.parse(new String[] {"duration=1", "threads=2", "difficulty=0", "prune=100",
+        "mix=append:40,check:40,report:20"});
+    gen.run();
+    assertTrue(gen.latencies[1].getCount() > 0);
+    assertEquals(0, gen.errors[3]);
+
+    Locale locale = Locale.getDefault();
+    StringWriter csv = new StringWriter();
+    StringWriter json = new StringWriter();
+    try {
+      Locale.setDefault(Locale.GERMANY);
+      gen.writeCsv(new PrintWriter(csv, true));
+      gen.writeJson(new PrintWriter(json, true));
+    } finally {
+      Locale.setDefault(locale);
+    } // try/finally
+
+    String[] rows = csv.toString().split("\\R");
+    assertEquals(1 + LoadGenerator.OPS.length, rows.length);
+    int columns = rows[0].split(",").length;
+    assertEquals(15, columns);
+    for (int i = 1; i < rows.length; i++) {
+      String[] fields = rows[i].split(",");
+      assertEquals(columns, fields.length);
+      assertEquals(LoadGenerator.OPS[i - 1], fields[0]);
+      Double.parseDouble(fields[3]);
+    } // for
+
+    String text = json.toString().trim();
+    assertTrue(text.startsWith("{") && text.endsWith("}"));
+    assertTrue(text.matches("(?s).*\"duration_s\": \\d+\\.\\d{3},.*"));
+    for (String op : LoadGenerator.OPS) {
+      assertTrue(text.matches("(?s).*\"" + op + "\": \\{\"count\": \\d+, \"errors\": \\d+, "
+          + "\"throughput\": \\d+\\.\\d, .*"));
+    } // for
+  } // runTest()
+
+} // class LoadGeneratorTests
@@ -0,0 +1,536 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the nonce space of Block mining jobs into leases and hands them to MiningWorker
+ * processes connected over local sockets.
+ *
+ * Each connected worker holds at most one lease at a time and answers it with FOUND or
+ * EXHAUSTED. A claimed nonce is only accepted once Block(int, int, Hash, long) confirms that it
+ * gives a valid hash. As soon as a job is won (or cancelled), every worker still mining one of
+ * its leases is told to stop. While mining, a worker reports PROGRESS between chunks of nonces,
+ * and each report extends its lease by the lease timeout, so a lease may take as long as it needs.
+ * Leases held by workers that disconnect, or go quiet for longer than the lease timeout, are
+ * handed to other workers.
+ *
+ * Messages are written with DataOutputStream:
+ *    LEASE: byte type, long job, long lease, int num, int amount, int hash length, hash bytes,
+ *           long start, long end (both inclusive)
+ *    FOUND: byte type, long job, long lease, long nonce
+ *    EXHAUSTED: byte type, long job, long lease
+ *    PROGRESS: byte type, long job, long lease
+ *    CANCEL: byte type, long job
+ *
+ * @author Tim Yu
+ * @author Nye Tenerelli
+ * @author Keely Miyamoto
+ */
+public class MiningCoordinator implements Closeable {
+  // +-----------+
+  // | Constants |
+  // +-----------+---------------------------------------------------------------------------------
+
+  /**
+   * Coordinator to worker: mine a range of nonces.
+   */
+  static final byte LEASE = 1;
+
+  /**
+   * Worker to coordinator: a nonce in the leased range gives a valid hash.
+   */
+  static final byte FOUND = 2;
+
+  /**
+   * Worker to coordinator: no nonce in the leased range gives a valid hash, or the lease was
+   * cancelled.
+   */
+  static final byte EXHAUSTED = 3;
+
+  /**
+   * Coordinator to worker: stop mining for a job.
+   */
+  static final byte CANCEL = 4;
+
+  /**
+   * Worker to coordinator: still mining the lease.
+   */
+  static final byte PROGRESS = 5;
+
+  // +--------+
+  // | Fields |
+  // +--------+------------------------------------------------------------------------------------
+
+  // A nested static class for one mining job.
+  static class Job {
+    long id;
+    int num;
+    int amount;
+    Hash prevHash;
+    CompletableFuture<Block> result = new CompletableFuture<Block>();
+    // Start of the next fresh lease, while spaceLeft.
+    long next = Long.MIN_VALUE;
+    boolean spaceLeft = true;
+    // Ranges of leases that were lost and must be mined again.
+    ArrayDeque<long[]> retry = new ArrayDeque<long[]>();
+    // Number of leases of this job held by workers.
+    int outstanding = 0;
+
+    // Constructor
+    public Job(long id, int num, int amount, Hash prevHash) {
+      this.id = id;
+      this.num = num;
+      this.amount = amount;
+      this.prevHash = prevHash;
+    } // Job(long, int, int, Hash)
+  } // Job
+
+  // A nested static class for a range of nonces held by a worker.
+  static class Lease {
+    long id;
+    Job job;
+    long start;
+    long end;
+    // When the worker must next be heard from.
+    long deadline;
+
+    // Constructor
+    public Lease(long id, Job job, long start, long end, long deadline) {
+      this.id = id;
+      this.job = job;
+      this.start = start;
+      this.end = end;
+      this.deadline = deadline;
+    } // Lease(long, Job, long, long, long)
+  } // Lease
+
+  // A nested static class for a connected worker.
+  static class Worker {
+    Socket socket;
+    DataOutputStream out;
+    // The lease this worker is mining, or null if it is idle.
+    Lease lease;
+
+    // Constructor
+    public Worker(Socket socket) throws IOException {
+      this.socket = socket;
+      this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    } // Worker(Socket)
+  } // Worker
+
+  /**
+   * The listening socket.
+   */
+  private ServerSocket server;
+
+  /**
+   * The number of nonces in each lease.
+   */
+  private long leaseSize;
+
+  /**
+   * How long a worker holding a lease may go without a message before it is presumed dead, in
+   * milliseconds.
+   */
+  private long leaseTimeout;
+
+  /**
+   * The jobs that are not yet done, oldest first.
+   */
+  private ArrayDeque<Job> jobs = new ArrayDeque<Job>();
+
+  /**
+   * The connected workers.
+   */
+  private ArrayList<Worker> workers = new ArrayList<Worker>();
+
+  /**
+   * Identifiers for the next job and lease.
+   */
+  private long nextJobId = 0;
+  private long nextLeaseId = 0;
+
+  /**
+   * Whether close() has been called.
+   */
+  private volatile boolean closed = false;
+
+  // +--------------+
+  // | Constructors |
+  // +--------------+------------------------------------------------------------------------------
+
+  /**
+   * Creates a coordinator listening on the given port of the loopback interface (0 picks a free
+   * port), handing out leases of leaseSize nonces that expire once their worker has been silent
+   * for leaseTimeout milliseconds.
+   * @param port
+   * @param leaseSize
+   * @param leaseTimeout
+   * @throws IOException
+   */
+  public MiningCoordinator(int port, long leaseSize, long leaseTimeout) throws IOException {
+    if (leaseSize <= 0 || leaseTimeout <= 0) {
+      throw new IllegalArgumentException("leaseSize and leaseTimeout must be positive");
+    } // if
+    this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    this.leaseSize = leaseSize;
+    this.leaseTimeout = leaseTimeout;
+    startThread("MiningCoordinator-accept", this::acceptLoop);
+    startThread("MiningCoordinator-reaper", this::reapLoop);
+  } // MiningCoordinator(int, long, long)
+
+  // +----------------+
+  // | Public methods |
+  // +----------------+----------------------------------------------------------------------------
+
+  /**
+   * Returns the port this coordinator listens on.
+   * @return int
+   */
+  public int getPort() {
+    return this.server.getLocalPort();
+  } // getPort()
+
+  /**
+   * Queues a job to mine a block from the given parameters. The returned Future completes with
+   * the block once a worker finds a valid nonce; cancelling it stops the job's workers.
+   * @param num
+   * @param amount
+   * @param prevHash
+   * @return Future<Block>
+   */
+  public synchronized Future<Block> mine(int num, int amount, Hash prevHash) {
+    if (this.closed) {
+      throw new IllegalStateException("coordinator is closed");
+    } // if
+    Job job = new Job(this.nextJobId++, num, amount, prevHash);
+    job.result.whenComplete((blk, e) -> this.finish(job));
+    this.jobs.addLast(job);
+    this.assign();
+    return job.result;
+  } // mine(int, int, Hash)
+
+  /**
+   * Returns the number of connected workers.
+   * @return int
+   */
+  public synchronized int getWorkerCount() {
+    return this.workers.size();
+  } // getWorkerCount()
+
+  /**
+   * Stops accepting workers, fails every unfinished job, and closes every connection.
+   */
+  public void close() throws IOException {
+    ArrayList<Job> pending;
+    synchronized (this) {
+      this.closed = true;
+      pending = new ArrayList<Job>(this.jobs);
+      for (Worker worker : this.workers) {
+        closeQuietly(worker.socket);
+      } // for
+    } // synchronized
+    this.server.close();
+    for (Job job : pending) {
+      job.result.completeExceptionally(new IllegalStateException("coordinator closed"));
+    } // for
+  } // close()
+
+  // +----------------+
+  // | Helper methods |
+  // +----------------+----------------------------------------------------------------------------
+
+  /**
+   * Starts a daemon thread.
+   */
+  private static void startThread(String name, Runnable body) {
+    Thread thread = new Thread(body, name);
+    thread.setDaemon(true);
+    thread.start();
+  } // startThread(String, Runnable)
+
+  /**
+   * Accepts workers until the coordinator is closed, starting a reader thread for each.
+   */
+  private void acceptLoop() {
+    while (!this.closed) {
+      try {
+        Socket socket = this.server.accept();
+        Worker worker = new Worker(socket);
+        synchronized (this) {
+          this.workers.add(worker);
+          this.assign();
+        } // synchronized
+        startThread("MiningCoordinator-worker-" + socket.getPort(), () -> this.readLoop(worker));
+      } catch (IOException e) {
+        // The server socket was closed, or one connection failed; keep going unless closed.
+      } // try/catch
+    } // while
+  } // acceptLoop()
+
+  /**
+   * Reads a worker's answers until its connection fails, then hands its lease to another worker.
+   */
+  private void readLoop(Worker worker) {
+    try {
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(worker.socket.getInputStream()));
+      while (true) {
+        byte type = in.readByte();
+        long jobId = in.readLong();
+        long leaseId = in.readLong();
+        if (type == FOUND) {
+          this.found(worker, jobId, leaseId, in.readLong());
+        } else if (type == EXHAUSTED) {
+          this.exhausted(worker, leaseId);
+        } else if (type == PROGRESS) {
+          this.progress(worker, leaseId);
+        } else {
+          throw new IOException("unknown message type " + type);
+        } // if
+      } // while
+    } catch (IOException e) {
+      this.drop(worker);
+    } // try/catch
+  } // readLoop(Worker)
+
+  /**
+   * Expires leases whose workers have gone quiet.
+   */
+  private void reapLoop() {
+    while (!this.closed) {
+      try {
+        Thread.sleep(Math.max(1, this.leaseTimeout / 4));
+      } catch (InterruptedException e) {
+        return;
+      } // try/catch
+      ArrayList<Worker> late = new ArrayList<Worker>();
+      synchronized (this) {
+        long now = System.currentTimeMillis();
+        for (Worker worker : this.workers) {
+          if (worker.lease != null && worker.lease.deadline < now) {
+            late.add(worker);
+          } // if
+        } // for
+      } // synchronized
+      for (Worker worker : late) {
+        this.drop(worker);
+      } // for
+    } // while
+  } // reapLoop()
+
+  /**
+   * Handles a worker's claim to have found a nonce, accepting it only if it gives a valid block.
+   */
+  private void found(Worker worker, long jobId, long leaseId, long nonce) {
+    Job won = null;
+    Block blk = null;
+    synchronized (this) {
+      Lease lease = worker.lease;
+      if (lease == null || lease.id != leaseId) {
+        return;
+      } // if
+      Job job = lease.job;
+      try {
+        Block candidate = new Block(job.num, job.amount, job.prevHash, nonce);
+        if (candidate.getHash().isValid() && nonce >= lease.start && nonce <= lease.end) {
+          won = job;
+          blk = candidate;
+        } // if
+      } catch (Exception e) {
+        // Treated the same as an invalid nonce.
+      } // try/catch
+      if (won == null) {
+        // A bad claim: have the range mined again by someone else.
+        job.retry.addFirst(new long[] {lease.start, lease.end});
+      } else {
+        // No more leases for a won job, including for the worker that won it.
+        this.jobs.remove(won);
+      } // if
+      this.release(worker);
+      this.assign();
+    } // synchronized
+    // Completing the result runs finish(), which cancels the other leases. This happens outside
+    // the lock so that callbacks on the result do not run while holding it.
+    if (won != null) {
+      won.result.complete(blk);
+    } // if
+  } // found(Worker, long, long, long)
+
+  /**
+   * Handles a worker reporting that it is still mining its lease, extending the lease.
+   */
+  private synchronized void progress(Worker worker, long leaseId) {
+    Lease lease = worker.lease;
+    if (lease != null && lease.id == leaseId) {
+      lease.deadline = System.currentTimeMillis() + this.leaseTimeout;
+    } // if
+  } // progress(Worker, long)
+
+  /**
+   * Handles a worker reporting that its lease is used up or was cancelled.
+   */
+  private synchronized void exhausted(Worker worker, long leaseId) {
+    Lease lease = worker.lease;
+    if (lease == null || lease.id != leaseId) {
+      return;
+    } // if
+    this.release(worker);
+    this.failIfExhausted(lease.job);
+    this.assign();
+  } // exhausted(Worker, long)
+
+  /**
+   * Closes a worker's connection and returns its lease, if any, for another worker to mine.
+   */
+  private synchronized void drop(Worker worker) {
+    if (!this.workers.remove(worker)) {
+      return;
+    } // if
+    closeQuietly(worker.socket);
+    Lease lease = worker.lease;
+    if (lease != null) {
+      this.release(worker);
+      if (!lease.job.result.isDone()) {
+        lease.job.retry.addFirst(new long[] {lease.start, lease.end});
+      } // if
+    } // if
+    this.assign();
+  } // drop(Worker)
+
+  /**
+   * Forgets a done job and tells every worker mining for it to stop.
+   */
+  private synchronized void finish(Job job) {
+    this.jobs.remove(job);
+    for (Worker worker : new ArrayList<Worker>(this.workers)) {
+      if (worker.lease != null && worker.lease.job == job) {
+        this.send(worker, (out) -> {
+          out.writeByte(CANCEL);
+          out.writeLong(job.id);
+        });
+      } // if
+    } // for
+  } // finish(Job)
+
+  /**
+   * Marks a worker idle. Must be called while synchronized.
+   */
+  private void release(Worker worker) {
+    worker.lease.job.outstanding--;
+    worker.lease = null;
+  } // release(Worker)
+
+  /**
+   * Fails a job whose whole nonce space was mined without finding a valid hash. Must be called
+   * while synchronized.
+   */
+  private void failIfExhausted(Job job) {
+    if (!job.spaceLeft && job.retry.isEmpty() && job.outstanding == 0 && !job.result.isDone()) {
+      this.jobs.remove(job);
+      job.result.completeExceptionally(
+          new IllegalStateException("no valid nonce for job " + job.id));
+    } // if
+  } // failIfExhausted(Job)
+
+  /**
+   * Hands a lease to every idle worker while there is work. Must be called while synchronized.
+   */
+  private void assign() {
+    for (Worker worker : new ArrayList<Worker>(this.workers)) {
+      if (worker.lease != null) {
+        continue;
+      } // if
+      Lease lease = this.nextLease();
+      if (lease == null) {
+        return;
+      } // if
+      worker.lease = lease;
+      lease.job.outstanding++;
+      Job job = lease.job;
+      byte[] hashBytes = job.prevHash == null ? new byte[0] : job.prevHash.getData();
+      this.send(worker, (out) -> {
+        out.writeByte(LEASE);
+        out.writeLong(job.id);
+        out.writeLong(lease.id);
+        out.writeInt(job.num);
+        out.writeInt(job.amount);
+        out.writeInt(hashBytes.length);
+        out.write(hashBytes);
+        out.writeLong(lease.start);
+        out.writeLong(lease.end);
+      });
+    } // for
+  } // assign()
+
+  /**
+   * Returns the next lease to hand out, preferring lost ranges and older jobs, or null if there
+   * is none. Must be called while synchronized.
+   */
+  private Lease nextLease() {
+    long deadline = System.currentTimeMillis() + this.leaseTimeout;
+    for (Job job : this.jobs) {
+      if (job.result.isDone()) {
+        continue;
+      } // if
+      if (!job.retry.isEmpty()) {
+        long[] range = job.retry.pollFirst();
+        return new Lease(this.nextLeaseId++, job, range[0], range[1], deadline);
+      } // if
+      if (job.spaceLeft) {
+        long start = job.next;
+        long end = start > Long.MAX_VALUE - (this.leaseSize - 1)
+            ? Long.MAX_VALUE
+            : start + (this.leaseSize - 1);
+        if (end == Long.MAX_VALUE) {
+          job.spaceLeft = false;
+        } else {
+          job.next = end + 1;
+        } // if
+        return new Lease(this.nextLeaseId++, job, start, end, deadline);
+      } // if
+    } // for
+    return null;
+  } // nextLease()
+
+  // An interface for writing one message.
+  interface Message {
+    void write(DataOutputStream out) throws IOException;
+  } // Message
+
+  /**
+   * Writes a message to a worker, dropping the worker if the write fails. Must be called while
+   * synchronized.
+   */
+  private void send(Worker worker, Message message) {
+    try {
+      message.write(worker.out);
+      worker.out.flush();
+    } catch (IOException e) {
+      // The reader thread notices the broken connection and drops the worker.
+      closeQuietly(worker.socket);
+    } // try/catch
+  } // send(Worker, Message)
+
+  /**
+   * Closes a socket, ignoring any error.
+   */
+  private static void closeQuietly(Closeable socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Nothing more to do.
+    } // try/catch
+  } // closeQuietly(Closeable)
+
+} // class MiningCoordinator
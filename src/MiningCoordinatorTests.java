@@ -0,0 +1,273 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A file to test mining with a MiningCoordinator and MiningWorkers.
+ *
+ * @author Keely Miyamoto
+ * @author Nye Tenerelli
+ * @author Tim Yu
+ */
+public class MiningCoordinatorTests {
+  /**
+   * The number of nonces in each lease.
+   */
+  static long LEASE_SIZE = 1 << 20;
+
+  /**
+   * How long to wait for a block, in seconds.
+   */
+  static long TIMEOUT = 60;
+
+  /**
+   * Waits until the coordinator has the given number of workers.
+   */
+  static void awaitWorkers(MiningCoordinator coordinator, int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT * 1000;
+    while (coordinator.getWorkerCount() != count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    } // while
+  } // awaitWorkers(MiningCoordinator, int)
+
+  /**
+   * Starts a MiningWorker in this process.
+   */
+  static void startWorker(MiningCoordinator coordinator) throws Exception {
+    Socket socket = new Socket(InetAddress.getLoopbackAddress(), coordinator.getPort());
+    Thread worker = new Thread(() -> {
+      try {
+        MiningWorker.run(socket);
+      } catch (Exception e) {
+        // The coordinator closed the connection.
+      } // try/catch
+    });
+    worker.setDaemon(true);
+    worker.start();
+  } // startWorker(MiningCoordinator)
+
+  // A nested static class for a hand-written worker that answers leases as a test tells it to.
+  static class FakeWorker {
+    Socket socket;
+    DataInputStream in;
+    DataOutputStream out;
+    // The lease last received.
+    long jobId;
+    long leaseId;
+    long start;
+    long end;
+
+    // Constructor
+    FakeWorker(MiningCoordinator coordinator) throws Exception {
+      this.socket = new Socket(InetAddress.getLoopbackAddress(), coordinator.getPort());
+      this.in = new DataInputStream(this.socket.getInputStream());
+      this.out = new DataOutputStream(this.socket.getOutputStream());
+    } // FakeWorker(MiningCoordinator)
+
+    // Reads a message, recording it if it is a lease, and returns its type.
+    byte read() throws Exception {
+      byte type = this.in.readByte();
+      if (type == MiningCoordinator.CANCEL) {
+        this.in.readLong();
+        return type;
+      } // if
+      this.jobId = this.in.readLong();
+      this.leaseId = this.in.readLong();
+      this.in.readInt();
+      this.in.readInt();
+      this.in.readFully(new byte[this.in.readInt()]);
+      this.start = this.in.readLong();
+      this.end = this.in.readLong();
+      return type;
+    } // read()
+
+    // Answers the current lease.
+    void answer(byte type, long nonce) throws Exception {
+      this.out.writeByte(type);
+      this.out.writeLong(this.jobId);
+      this.out.writeLong(this.leaseId);
+      if (type == MiningCoordinator.FOUND) {
+        this.out.writeLong(nonce);
+      } // if
+      this.out.flush();
+    } // answer(byte, long)
+
+    // Answers EXHAUSTED to each lease until one holds the given nonce.
+    void leaseWith(long nonce) throws Exception {
+      while (nonce < this.start || nonce > this.end) {
+        this.answer(MiningCoordinator.EXHAUSTED, 0);
+        assertEquals(MiningCoordinator.LEASE, this.read());
+      } // while
+    } // leaseWith(long)
+  } // FakeWorker
+
+  /**
+   * Mines two blocks with three worker processes.
+   */
+  @Test
+  public void workerProcessesTest() throws Exception {
+    List<Process> processes = new ArrayList<Process>();
+    try (MiningCoordinator coordinator = new MiningCoordinator(0, LEASE_SIZE, 30000)) {
+      String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+      for (int i = 0; i < 3; i++) {
+        processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            "MiningWorker", "127.0.0.1", Integer.toString(coordinator.getPort()))
+            .inheritIO()
+            .start());
+      } // for
+      awaitWorkers(coordinator, 3);
+      assertEquals(3, coordinator.getWorkerCount());
+
+      Block b1 = coordinator.mine(1, 100, null).get(TIMEOUT, TimeUnit.SECONDS);
+      Block b2 = coordinator.mine(2, -40, b1.getHash()).get(TIMEOUT, TimeUnit.SECONDS);
+      assertTrue(b1.getHash().isValid());
+      assertTrue(b2.getHash().isValid());
+      assertEquals(b1.getHash(), b2.getPrevHash());
+      assertEquals(b2.getHash(), new Block(2, -40, b1.getHash(), b2.getNonce()).getHash());
+    } finally {
+      for (Process process : processes) {
+        process.destroy();
+      } // for
+    } // try/finally
+  } // workerProcessesTest()
+
+  /**
+   * Checks that the lease of a worker that disconnects is mined by another worker.
+   */
+  @Test
+  public void deadWorkerTest() throws Exception {
+    try (MiningCoordinator coordinator = new MiningCoordinator(0, LEASE_SIZE, 30000)) {
+      // A worker that takes the first lease and then disconnects.
+      Socket quitter = new Socket(InetAddress.getLoopbackAddress(), coordinator.getPort());
+      awaitWorkers(coordinator, 1);
+      Block expected = new Block(1, 5, null);
+      Future<Block> result = coordinator.mine(1, 5, null);
+      new DataInputStream(quitter.getInputStream()).readByte();
+      quitter.close();
+      awaitWorkers(coordinator, 0);
+
+      // A real worker, which must mine the first lease again.
+      startWorker(coordinator);
+
+      // Leases are mined in order, so the first valid nonce is the one found by sequential mining.
+      assertEquals(expected.getNonce(), result.get(TIMEOUT, TimeUnit.SECONDS).getNonce());
+    } // try
+  } // deadWorkerTest()
+
+  /**
+   * Checks that a claimed nonce outside the claimer's lease, or one that does not give a valid
+   * hash, is rejected and its range leased again, and that a good claim wins.
+   */
+  @Test
+  public void badClaimTest() throws Exception {
+    long expected = new Block(1, 5, null).getNonce();
+    try (MiningCoordinator coordinator = new MiningCoordinator(0, LEASE_SIZE, 30000)) {
+      FakeWorker fake = new FakeWorker(coordinator);
+      awaitWorkers(coordinator, 1);
+      Future<Block> result = coordinator.mine(1, 5, null);
+      assertEquals(MiningCoordinator.LEASE, fake.read());
+      long start = fake.start;
+      assertTrue(expected > fake.end);
+
+      // A valid nonce from outside the lease.
+      fake.answer(MiningCoordinator.FOUND, expected);
+      assertEquals(MiningCoordinator.LEASE, fake.read());
+      assertEquals(start, fake.start);
+
+      // A nonce in the lease whose hash is not valid.
+      long invalid = fake.start;
+      while (new Block(1, 5, null, invalid).getHash().isValid()) {
+        invalid++;
+      } // while
+      fake.answer(MiningCoordinator.FOUND, invalid);
+      assertEquals(MiningCoordinator.LEASE, fake.read());
+      assertEquals(start, fake.start);
+      assertFalse(result.isDone());
+
+      // The real nonce, once it is in the lease.
+      fake.leaseWith(expected);
+      fake.answer(MiningCoordinator.FOUND, expected);
+      assertEquals(expected, result.get(TIMEOUT, TimeUnit.SECONDS).getNonce());
+      fake.socket.close();
+    } // try
+  } // badClaimTest()
+
+  /**
+   * Checks that once one worker wins a job, the other worker mining it is told to stop.
+   */
+  @Test
+  public void cancelTest() throws Exception {
+    long expected = new Block(1, 5, null).getNonce();
+    try (MiningCoordinator coordinator = new MiningCoordinator(0, LEASE_SIZE, 30000)) {
+      FakeWorker first = new FakeWorker(coordinator);
+      awaitWorkers(coordinator, 1);
+      FakeWorker second = new FakeWorker(coordinator);
+      awaitWorkers(coordinator, 2);
+      Future<Block> result = coordinator.mine(1, 5, null);
+      assertEquals(MiningCoordinator.LEASE, first.read());
+      assertEquals(MiningCoordinator.LEASE, second.read());
+
+      // The winner is whichever holds the real nonce, or will once it takes more leases.
+      FakeWorker winner = (expected >= second.start && expected <= second.end) ? second : first;
+      FakeWorker other = (winner == first) ? second : first;
+
+      winner.leaseWith(expected);
+      winner.answer(MiningCoordinator.FOUND, expected);
+      assertEquals(expected, result.get(TIMEOUT, TimeUnit.SECONDS).getNonce());
+      assertEquals(MiningCoordinator.CANCEL, other.in.readByte());
+      assertEquals(winner.jobId, other.in.readLong());
+      winner.socket.close();
+      other.socket.close();
+    } // try
+  } // cancelTest()
+
+  /**
+   * Checks that a worker that goes quiet while holding a lease is dropped, but that a worker
+   * reporting progress keeps a lease that takes longer than the lease timeout.
+   */
+  @Test
+  public void leaseTimeoutTest() throws Exception {
+    try (MiningCoordinator coordinator = new MiningCoordinator(0, LEASE_SIZE, 300)) {
+      FakeWorker quiet = new FakeWorker(coordinator);
+      awaitWorkers(coordinator, 1);
+      FakeWorker busy = new FakeWorker(coordinator);
+      awaitWorkers(coordinator, 2);
+      Future<Block> result = coordinator.mine(1, 5, null);
+      assertEquals(MiningCoordinator.LEASE, quiet.read());
+      assertEquals(MiningCoordinator.LEASE, busy.read());
+      for (int i = 0; i < 15; i++) {
+        busy.answer(MiningCoordinator.PROGRESS, 0);
+        Thread.sleep(100);
+      } // for
+
+      // The quiet worker was dropped; the busy one still holds its lease.
+      assertEquals(-1, quiet.in.read());
+      assertEquals(1, coordinator.getWorkerCount());
+      assertFalse(result.isDone());
+      result.cancel(false);
+      busy.socket.close();
+    } // try
+
+    // Real workers whose leases take several lease timeouts to mine are not dropped.
+    try (MiningCoordinator coordinator = new MiningCoordinator(0, 1L << 26, 100)) {
+      startWorker(coordinator);
+      startWorker(coordinator);
+      awaitWorkers(coordinator, 2);
+      Block blk = coordinator.mine(1, 5, null).get(TIMEOUT, TimeUnit.SECONDS);
+      assertTrue(blk.getHash().isValid());
+      assertEquals(2, coordinator.getWorkerCount());
+    } // try
+  } // leaseTimeoutTest()
+
+} // class MiningCoordinatorTests
@@ -0,0 +1,346 @@
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A pool of worker threads shared by the mining jobs of many ledgers.
+ *
+ * Each ledger has its own queue of jobs, a limit on how many of its jobs may wait (maxQueued)
+ * and how many may run at once (maxRunning). Workers pick the next job by one of two policies:
+ * FAIR_SHARE takes one job from each ledger with work in turn, and PRIORITY takes from the
+ * highest-priority ledger with work, taking turns among ledgers of equal priority.
+ *
+ * @author Tim Yu
+ * @author Nye Tenerelli
+ * @author Keely Miyamoto
+ */
+public class MiningScheduler implements Closeable {
+  // +-------+
+  // | Types |
+  // +-------+-------------------------------------------------------------------------------------
+
+  /**
+   * How workers choose between ledgers.
+   */
+  public static enum Policy {
+    FAIR_SHARE,
+    PRIORITY
+  } // Policy
+
+  // A nested static class for the jobs and limits of one ledger.
+  static class Ledger {
+    String id;
+    int priority;
+    int maxQueued;
+    int maxRunning;
+    ArrayDeque<FutureTask<?>> queue = new ArrayDeque<FutureTask<?>>();
+    int running = 0;
+    long completed = 0;
+    // Whether this ledger is waiting in the ready queues.
+    boolean ready = false;
+    // Whether this ledger was unregistered; it is then skipped if still in the ready queues.
+    boolean removed = false;
+
+    // Constructor
+    public Ledger(String id, int priority, int maxQueued, int maxRunning) {
+      this.id = id;
+      this.priority = priority;
+      this.maxQueued = maxQueued;
+      this.maxRunning = maxRunning;
+    } // Ledger(String, int, int, int)
+
+    // Whether a worker may start one of this ledger's jobs.
+    boolean runnable() {
+      return !this.queue.isEmpty() && (this.running < this.maxRunning);
+    } // runnable()
+  } // Ledger
+
+  // +--------+
+  // | Fields |
+  // +--------+------------------------------------------------------------------------------------
+
+  /**
+   * How workers choose between ledgers.
+   */
+  private Policy policy;
+
+  /**
+   * The registered ledgers, by ID.
+   */
+  private HashMap<String, Ledger> ledgers = new HashMap<String, Ledger>();
+
+  /**
+   * The ledgers that have queued jobs and are below their running limit, by priority (all 0
+   * under FAIR_SHARE), each level in the order it will be served. A ledger at its running limit
+   * is left out until one of its jobs finishes.
+   */
+  private TreeMap<Integer, ArrayDeque<Ledger>> ready = new TreeMap<Integer, ArrayDeque<Ledger>>();
+
+  /**
+   * The total number of queued jobs.
+   */
+  private int queued = 0;
+
+  /**
+   * The worker threads.
+   */
+  private Thread[] workers;
+
+  /**
+   * Whether close() has been called.
+   */
+  private boolean closed = false;
+
+  // +--------------+
+  // | Constructors |
+  // +--------------+------------------------------------------------------------------------------
+
+  /**
+   * Creates a scheduler with one worker per available processor.
+   * @param policy
+   */
+  public MiningScheduler(Policy policy) {
+    this(Runtime.getRuntime().availableProcessors(), policy);
+  } // MiningScheduler(Policy)
+
+  /**
+   * Creates a scheduler with the given number of workers.
+   * @param threads
+   * @param policy
+   */
+  public MiningScheduler(int threads, Policy policy) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("threads must be positive");
+    } // if
+    this.policy = policy;
+    this.workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      this.workers[i] = new Thread(this::work, "MiningScheduler-" + i);
+      this.workers[i].setDaemon(true);
+      this.workers[i].start();
+    } // for
+  } // MiningScheduler(int, Policy)
+
+  // +----------------+
+  // | Public methods |
+  // +----------------+----------------------------------------------------------------------------
+
+  /**
+   * Registers a ledger, throwing an IllegalArgumentException if the ID is already registered.
+   * @param id
+   * @param priority - higher runs first under the PRIORITY policy
+   * @param maxQueued - the most jobs that may wait for this ledger
+   * @param maxRunning - the most jobs of this ledger that may run at once
+   */
+  public synchronized void register(String id, int priority, int maxQueued, int maxRunning) {
+    if (this.ledgers.containsKey(id)) {
+      throw new IllegalArgumentException("ledger " + id + " is already registered");
+    } // if
+    if (maxQueued <= 0 || maxRunning <= 0) {
+      throw new IllegalArgumentException("quotas must be positive");
+    } // if
+    this.ledgers.put(id, new Ledger(id, priority, maxQueued, maxRunning));
+  } // register(String, int, int, int)
+
+  /**
+   * Removes a ledger, cancelling any of its queued jobs. Jobs already running finish.
+   * @param id
+   */
+  public synchronized void unregister(String id) {
+    Ledger ledger = this.ledgers.remove(id);
+    if (ledger == null) {
+      return;
+    } // if
+    ledger.removed = true;
+    this.queued -= ledger.queue.size();
+    for (FutureTask<?> job : ledger.queue) {
+      job.cancel(false);
+    } // for
+    ledger.queue.clear();
+  } // unregister(String)
+
+  /**
+   * Queues a job for the given ledger, throwing a RejectedExecutionException if the ledger is
+   * not registered, its queue is full, or the scheduler is closed.
+   * @param id
+   * @param job
+   * @return Future<T>
+   */
+  public synchronized <T> Future<T> submit(String id, Callable<T> job) {
+    Ledger ledger = this.ledgers.get(id);
+    if (this.closed || ledger == null) {
+      throw new RejectedExecutionException("ledger " + id + " is not accepting jobs");
+    } // if
+    if (ledger.queue.size() >= ledger.maxQueued) {
+      throw new RejectedExecutionException("ledger " + id + " has " + ledger.maxQueued
+          + " jobs queued");
+    } // if
+
+    FutureTask<T> task = new FutureTask<T>(job);
+    ledger.queue.addLast(task);
+    this.queued++;
+    if (this.makeReady(ledger)) {
+      this.notify();
+    } // if
+    return task;
+  } // submit(String, Callable<T>)
+
+  /**
+   * Returns the number of jobs waiting for the given ledger.
+   * @param id
+   * @return int
+   */
+  public synchronized int getQueueDepth(String id) {
+    Ledger ledger = this.ledgers.get(id);
+    return ledger == null ? 0 : ledger.queue.size();
+  } // getQueueDepth(String)
+
+  /**
+   * Returns the number of jobs waiting across every ledger.
+   * @return int
+   */
+  public synchronized int getQueueDepth() {
+    return this.queued;
+  } // getQueueDepth()
+
+  /**
+   * Returns the number of the given ledger's jobs that are running.
+   * @param id
+   * @return int
+   */
+  public synchronized int getRunning(String id) {
+    Ledger ledger = this.ledgers.get(id);
+    return ledger == null ? 0 : ledger.running;
+  } // getRunning(String)
+
+  /**
+   * Returns the number of the given ledger's jobs that have finished.
+   * @param id
+   * @return long
+   */
+  public synchronized long getCompleted(String id) {
+    Ledger ledger = this.ledgers.get(id);
+    return ledger == null ? 0 : ledger.completed;
+  } // getCompleted(String)
+
+  /**
+   * Returns the number of worker threads.
+   * @return int
+   */
+  public int getThreads() {
+    return this.workers.length;
+  } // getThreads()
+
+  /**
+   * Cancels every queued job and stops the workers once their current jobs finish.
+   */
+  public void close() {
+    synchronized (this) {
+      this.closed = true;
+      for (Ledger ledger : this.ledgers.values()) {
+        for (FutureTask<?> job : ledger.queue) {
+          job.cancel(false);
+        } // for
+        ledger.queue.clear();
+      } // for
+      this.ready.clear();
+      this.queued = 0;
+      this.notifyAll();
+    } // synchronized
+    for (Thread worker : this.workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } // try/catch
+    } // for
+  } // close()
+
+  // +----------------+
+  // | Helper methods |
+  // +----------------+----------------------------------------------------------------------------
+
+  /**
+   * The loop run by each worker.
+   */
+  private void work() {
+    while (true) {
+      Ledger ledger;
+      FutureTask<?> job;
+      synchronized (this) {
+        // Wait for a ledger with a job we may start.
+        while ((ledger = this.pick()) == null) {
+          if (this.closed) {
+            return;
+          } // if
+          try {
+            this.wait();
+          } catch (InterruptedException e) {
+            return;
+          } // try/catch
+        } // while
+        job = ledger.queue.pollFirst();
+        this.queued--;
+        ledger.running++;
+        // Send the ledger to the back of its line, unless it has no more jobs it may start.
+        this.makeReady(ledger);
+        // Pass the wakeup on if another worker could start a job too.
+        if (!this.ready.isEmpty()) {
+          this.notify();
+        } // if
+      } // synchronized
+
+      job.run();
+
+      synchronized (this) {
+        ledger.running--;
+        ledger.completed++;
+        // A ledger at its running limit may now start another job.
+        if (this.makeReady(ledger)) {
+          this.notify();
+        } // if
+      } // synchronized
+    } // while
+  } // work()
+
+  /**
+   * Takes the ledger whose job should run next under the policy out of the ready queues, or
+   * returns null if no ledger may start a job. Must be called while synchronized.
+   */
+  private Ledger pick() {
+    while (!this.ready.isEmpty()) {
+      Map.Entry<Integer, ArrayDeque<Ledger>> top = this.ready.lastEntry();
+      Ledger ledger = top.getValue().pollFirst();
+      if (top.getValue().isEmpty()) {
+        this.ready.remove(top.getKey());
+      } // if
+      if (!ledger.removed) {
+        ledger.ready = false;
+        return ledger;
+      } // if
+    } // while
+    return null;
+  } // pick()
+
+  /**
+   * Puts a ledger at the back of its ready queue if it may start a job and is not there yet.
+   * Returns whether it was added. Must be called while synchronized.
+   */
+  private boolean makeReady(Ledger ledger) {
+    if (ledger.ready || ledger.removed || !ledger.runnable()) {
+      return false;
+    } // if
+    int level = (this.policy == Policy.PRIORITY) ? ledger.priority : 0;
+    this.ready.computeIfAbsent(level, (k) -> new ArrayDeque<Ledger>()).addLast(ledger);
+    ledger.ready = true;
+    return true;
+  } // makeReady(Ledger)
+
+} // class MiningScheduler
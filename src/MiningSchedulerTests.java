@@ -0,0 +1,142 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A file to test methods in the MiningScheduler class.
+ *
+ * @author Keely Miyamoto
+ * @author Nye Tenerelli
+ * @author Tim Yu
+ */
+public class MiningSchedulerTests {
+  /**
+   * Occupies the scheduler's only worker until the returned latch is counted down.
+   */
+  static CountDownLatch block(MiningScheduler scheduler) throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    scheduler.register("blocker", 0, 1, 1);
+    scheduler.submit("blocker", () -> {
+      started.countDown();
+      release.await();
+      return null;
+    });
+    started.await();
+    return release;
+  } // block(MiningScheduler)
+
+  /**
+   * Queues jobs for two ledgers and returns the order in which they ran.
+   */
+  static List<String> runOrder(MiningScheduler.Policy policy) throws Exception {
+    MiningScheduler scheduler = new MiningScheduler(1, policy);
+    CountDownLatch release = block(scheduler);
+    List<String> order = new ArrayList<String>();
+    scheduler.register("a", 1, 10, 1);
+    scheduler.register("b", 2, 10, 1);
+    Future<?> last = null;
+    for (int i = 0; i < 3; i++) {
+      scheduler.submit("a", () -> order.add("a"));
+    } // for
+    for (int i = 0; i < 3; i++) {
+      last = scheduler.submit("b", () -> order.add("b"));
+    } // for
+    assertEquals(3, scheduler.getQueueDepth("a"));
+    assertEquals(6, scheduler.getQueueDepth());
+
+    // Wait for the last job of each ledger.
+    release.countDown();
+    last.get();
+    scheduler.submit("a", () -> null).get();
+    scheduler.close();
+    return order;
+  } // runOrder(MiningScheduler.Policy)
+
+  /**
+   * Checks that FAIR_SHARE takes turns between ledgers.
+   */
+  @Test
+  public void fairShareTest() throws Exception {
+    assertEquals(List.of("a", "b", "a", "b", "a", "b"), runOrder(MiningScheduler.Policy.FAIR_SHARE));
+  } // fairShareTest()
+
+  /**
+   * Checks that PRIORITY runs the higher-priority ledger first.
+   */
+  @Test
+  public void priorityTest() throws Exception {
+    assertEquals(List.of("b", "b", "b", "a", "a", "a"), runOrder(MiningScheduler.Policy.PRIORITY));
+  } // priorityTest()
+
+  /**
+   * Checks that a ledger cannot queue more than its quota or submit before registering.
+   */
+  @Test
+  public void quotaTest() throws Exception {
+    MiningScheduler scheduler = new MiningScheduler(1, MiningScheduler.Policy.FAIR_SHARE);
+    CountDownLatch release = block(scheduler);
+    scheduler.register("a", 0, 2, 1);
+    scheduler.submit("a", () -> null);
+    scheduler.submit("a", () -> null);
+    assertThrows(RejectedExecutionException.class, () -> scheduler.submit("a", () -> null));
+    assertThrows(RejectedExecutionException.class, () -> scheduler.submit("c", () -> null));
+    assertEquals(1, scheduler.getRunning("blocker"));
+
+    release.countDown();
+    scheduler.close();
+  } // quotaTest()
+
+  /**
+   * Checks that a ledger with a running limit above one keeps several workers busy, but no more
+   * than its limit, while another ledger uses the rest.
+   */
+  @Test
+  public void maxRunningTest() throws Exception {
+    MiningScheduler scheduler = new MiningScheduler(4, MiningScheduler.Policy.FAIR_SHARE);
+    scheduler.register("a", 0, 20, 2);
+    scheduler.register("b", 0, 20, 1);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger peak = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(3);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Future<?>> jobs = new ArrayList<Future<?>>();
+    for (int i = 0; i < 10; i++) {
+      jobs.add(scheduler.submit("a", () -> {
+        peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+        started.countDown();
+        release.await();
+        running.decrementAndGet();
+        return null;
+      }));
+    } // for
+    jobs.add(scheduler.submit("b", () -> {
+      started.countDown();
+      release.await();
+      return null;
+    }));
+
+    // Two of a's jobs and b's job start; the fourth worker must stay idle.
+    started.await();
+    Thread.sleep(100);
+    assertEquals(2, scheduler.getRunning("a"));
+    assertEquals(1, scheduler.getRunning("b"));
+    assertEquals(8, scheduler.getQueueDepth());
+
+    release.countDown();
+    for (Future<?> job : jobs) {
+      job.get();
+    } // for
+    assertEquals(2, peak.get());
+    assertEquals(10, scheduler.getCompleted("a"));
+    scheduler.close();
+  } // maxRunningTest()
+
+} // class MiningSchedulerTests
@@ -0,0 +1,126 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A worker process that mines the leases handed out by a MiningCoordinator.
+ *
+ * The worker mines each lease in small chunks. Between chunks it reports PROGRESS, so that the
+ * coordinator does not take a long lease for a dead worker, and checks whether the coordinator
+ * has cancelled the lease's job. It answers every lease with FOUND or EXHAUSTED.
+ *
+ * @author Tim Yu
+ * @author Nye Tenerelli
+ * @author Keely Miyamoto
+ */
+public class MiningWorker {
+  /**
+   * The number of nonces tried between progress reports and checks for a cancellation.
+   */
+  static final long CHUNK = 1 << 16;
+
+  /**
+   * Connects to the coordinator at the given host and port and mines until it disconnects.
+   * @param args - Enter the coordinator's host and port.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.err.println("Usage: MiningWorker <host> <port>");
+      System.exit(1);
+    } // if
+    try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+      run(socket);
+    } // try
+  } // main(String[])
+
+  /**
+   * Mines leases received over the given socket until it is closed.
+   * @param socket
+   * @throws IOException
+   * @throws NoSuchAlgorithmException
+   */
+  public static void run(Socket socket) throws IOException, NoSuchAlgorithmException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    try {
+      while (true) {
+        byte type = in.readByte();
+        if (type == MiningCoordinator.CANCEL) {
+          // A cancellation for a lease we already answered.
+          in.readLong();
+          continue;
+        } // if
+        if (type != MiningCoordinator.LEASE) {
+          throw new IOException("unknown message type " + type);
+        } // if
+
+        // Read the lease.
+        long jobId = in.readLong();
+        long leaseId = in.readLong();
+        int num = in.readInt();
+        int amount = in.readInt();
+        byte[] hashBytes = new byte[in.readInt()];
+        in.readFully(hashBytes);
+        Hash prevHash = hashBytes.length == 0 ? null : new Hash(hashBytes);
+        long start = in.readLong();
+        long end = in.readLong();
+
+        // Mine it chunk by chunk.
+        Block blk = mine(in, out, jobId, leaseId, num, amount, prevHash, start, end);
+        out.writeByte(blk == null ? MiningCoordinator.EXHAUSTED : MiningCoordinator.FOUND);
+        out.writeLong(jobId);
+        out.writeLong(leaseId);
+        if (blk != null) {
+          out.writeLong(blk.getNonce());
+        } // if
+        out.flush();
+      } // while
+    } catch (EOFException e) {
+      // The coordinator closed the connection.
+    } // try/catch
+  } // run(Socket)
+
+  /**
+   * Mines the range from start to end (both inclusive), returning the block found or null if
+   * the range holds no valid nonce or the coordinator cancels the job.
+   */
+  static Block mine(DataInputStream in, DataOutputStream out, long jobId, long leaseId, int num,
+      int amount, Hash prevHash, long start, long end)
+      throws IOException, NoSuchAlgorithmException {
+    long chunkStart = start;
+    while (true) {
+      // Compare unsigned, since end - chunkStart overflows for ranges wider than Long.MAX_VALUE.
+      long chunkEnd = Long.compareUnsigned(end - chunkStart, CHUNK) < 0
+          ? end
+          : chunkStart + CHUNK - 1;
+      Block blk = Block.mineRange(num, amount, prevHash, chunkStart, chunkEnd);
+      if (blk != null || chunkEnd == end) {
+        return blk;
+      } // if
+      chunkStart = chunkEnd + 1;
+
+      // Tell the coordinator we are still alive.
+      out.writeByte(MiningCoordinator.PROGRESS);
+      out.writeLong(jobId);
+      out.writeLong(leaseId);
+      out.flush();
+
+      // Check for a cancellation; nothing else is sent while a lease is held.
+      while (in.available() > 0) {
+        byte type = in.readByte();
+        if (type != MiningCoordinator.CANCEL) {
+          throw new IOException("unexpected message type " + type);
+        } // if
+        if (in.readLong() == jobId) {
+          return null;
+        } // if
+      } // while
+    } // while
+  } // mine(DataInputStream, DataOutputStream, long, long, int, int, Hash, long, long)
+
+} // class MiningWorker